@@ -0,0 +1,42 @@
+#!/bin/sh
+# Training run for the class-data-sharing archive, done once while the image is built:
+# the service is started without a database, serves each kind of request and is stopped,
+# the JVM then writes the classes it loaded to the archive, which later starts map instead of loading from the jar.
+set -e
+jar=${1:-/app.jar}
+archive=${2:-/app.jsa}
+url=http://localhost:8080
+
+java -XX:ArchiveClassesAtExit="$archive" -Xlog:cds=error -Ddao.storage=memory -Daudit.file=/tmp/cds-training-actions.log \
+    -jar "$jar" &
+pid=$!
+attempts=0
+until wget -q -O /dev/null "$url/metrics"; do
+    attempts=$((attempts + 1))
+    if [ "$attempts" -ge 300 ]; then
+        kill "$pid"
+        exit 1
+    fi
+    sleep 0.2
+done
+
+post() {
+    wget -q -O - --header 'Content-Type: application/json' "$@"
+}
+post --post-data '{"login":"cds-receiver","password":"cds-training"}' "$url/signup" > /dev/null
+tokens=$(post --post-data '{"login":"cds-sender","password":"cds-training"}' "$url/signup")
+post --post-data '{"login":"cds-sender","password":"cds-training"}' "$url/signin" > /dev/null
+refresh=$(echo "$tokens" | sed 's/.*"refreshToken":"\([^"]*\)".*/\1/')
+access=$(echo "$tokens" | sed 's/.*"accessToken":"\([^"]*\)".*/\1/')
+post --post-data "{\"refreshToken\":\"$refresh\"}" "$url/refresh" > /dev/null
+auth="Authorization: Bearer $access"
+wget -q -O /dev/null --header "$auth" "$url/money"
+post --header "$auth" --post-data '{"to":"cds-receiver","amount":1.00}' "$url/money" > /dev/null
+wget -q -O /dev/null --header "$auth" "$url/money/history"
+wget -q -O /dev/null --header "$auth" "$url/money/history/export"
+#Error responses load their classes too
+wget -q -O /dev/null "$url/money" || true
+
+kill "$pid"
+wait "$pid" || true
+test -s "$archive"
@@ -0,0 +1,62 @@
+package benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * Connection that reads the given requests and counts the bytes written back, so a request is handled
+ * by the server code without the network stack.
+ */
+class InMemorySocket extends Socket {
+    private final InputStream in;
+    private final CountingOutputStream out;
+
+    InMemorySocket(byte[] requests) {
+        in = new ByteArrayInputStream(requests);
+        out = new CountingOutputStream();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return in;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return out;
+    }
+
+    @Override
+    public InetAddress getInetAddress() {
+        return InetAddress.getLoopbackAddress();
+    }
+
+    @Override
+    public void setSoTimeout(int timeout) {
+    }
+
+    @Override
+    public synchronized void close() {
+    }
+
+    long getBytesWritten() {
+        return out.count;
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
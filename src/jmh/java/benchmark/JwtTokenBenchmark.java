@@ -0,0 +1,62 @@
+package benchmark;
+
+import model.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import utils.JwtTokenUtils;
+import utils.TokenVerification;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Access token verification is measured both through the verified token cache and without it,
+ * refresh tokens are never cached.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtTokenBenchmark {
+    private JwtTokenUtils tokenUtils;
+    private User user;
+    private String accessToken;
+    private String refreshToken;
+
+    @Setup
+    public void setUp() {
+        tokenUtils = new JwtTokenUtils();
+        user = new User(1L, "benchmark", "");
+        accessToken = tokenUtils.generateAccessToken(user);
+        refreshToken = tokenUtils.generateRefreshToken(user);
+    }
+
+    @Benchmark
+    public String generateAccessToken() {
+        return tokenUtils.generateAccessToken(user);
+    }
+
+    @Benchmark
+    public TokenVerification verifyCachedAccessToken() {
+        return tokenUtils.verifyAccessToken(accessToken);
+    }
+
+    @Benchmark
+    public TokenVerification verifyRefreshToken() {
+        return tokenUtils.verifyRefreshToken(refreshToken);
+    }
+
+    @Benchmark
+    public TokenVerification verifyMalformedToken() {
+        return tokenUtils.verifyAccessToken("not a token");
+    }
+}
@@ -0,0 +1,115 @@
+package benchmark;
+
+import Service.AccountServiceImpl;
+import audit.AuditConfig;
+import audit.AuditLogger;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import controller.AccountController;
+import controller.AuthenticationController;
+import controller.MetricsController;
+import controller.RoutingController;
+import limit.ConcurrencyLimiter;
+import limit.LimitConfig;
+import limit.RateLimiter;
+import limit.TrustedProxies;
+import model.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import server.ServerConfig;
+import utils.JwtTokenUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A whole request on one connection: parsing, limits, authorization, controller, service, audit and writing the response.
+ * Accounts are stubbed, the per client rate limit is disabled and the audit log drops events it can not keep up with.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoutingBenchmark {
+    private AuditLogger auditLogger;
+    private RoutingController routingController;
+    private byte[] getMoneyRequest;
+    private byte[] sendMoneyRequest;
+    private byte[] notFoundRequest;
+
+    @Setup
+    public void setUp() throws IOException {
+        System.setProperty("limit.rate.default", "0");
+        System.setProperty("audit.file", "target/benchmark-actions.log");
+        System.setProperty("audit.overflow", "drop");
+
+        JwtTokenUtils tokenUtils = new JwtTokenUtils();
+        ObjectMapper mapper = new ObjectMapper();
+        auditLogger = new AuditLogger(new AuditConfig());
+        AccountController accountController = new AccountController(
+                new AccountServiceImpl(new StubAccountDao(), new StubTransactionDao()), mapper, tokenUtils, auditLogger);
+        LimitConfig limitConfig = new LimitConfig();
+        //Authentication routes are not benchmarked, BCrypt would dominate them
+        routingController = new RoutingController(new ServerConfig(), new AuthenticationController(null, mapper, auditLogger),
+                accountController, new MetricsController(), tokenUtils, new RateLimiter(limitConfig),
+                new ConcurrencyLimiter(limitConfig), new TrustedProxies(limitConfig.getTrustedProxies()));
+
+        String accessToken = tokenUtils.generateAccessToken(new User(1L, "sender", ""));
+        String transfer = "{\"to\":\"receiver\",\"amount\":12.34}";
+        getMoneyRequest = ascii("GET /money HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "Authorization: Bearer " + accessToken + "\r\n" +
+                "\r\n");
+        sendMoneyRequest = ascii("POST /money HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "Authorization: Bearer " + accessToken + "\r\n" +
+                "Content-Type: application/json\r\n" +
+                "Content-Length: " + transfer.length() + "\r\n" +
+                "\r\n" +
+                transfer);
+        notFoundRequest = ascii("GET /unknown HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "\r\n");
+    }
+
+    @TearDown
+    public void tearDown() {
+        auditLogger.close();
+    }
+
+    @Benchmark
+    public long getMoney() {
+        return handle(getMoneyRequest);
+    }
+
+    @Benchmark
+    public long sendMoney() {
+        return handle(sendMoneyRequest);
+    }
+
+    @Benchmark
+    public long notFound() {
+        return handle(notFoundRequest);
+    }
+
+    private long handle(byte[] request) {
+        InMemorySocket socket = new InMemorySocket(request);
+        routingController.handleRequest(socket);
+        return socket.getBytesWritten();
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,129 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import server.ServerConfig;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Time from launching the packaged jar in a new JVM to the first response, against the database configured
+ * in db.properties, as a container start would see it. With cds a class-data-sharing archive is written
+ * by a training start first, like the Dockerfile does. Database settings are passed to the started service
+ * as environment variables, e.g. DATASOURCE_URL. Not run by default, select it explicitly after mvn package
+ * with the database running.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 10)
+@Fork(1)
+public class StartupBenchmark {
+    private static final Path TARGET = Path.of("target");
+    private static final Path ARCHIVE = TARGET.resolve("startup-benchmark.jsa");
+    private static final Path SERVICE_LOG = TARGET.resolve("startup-benchmark.log");
+    private static final long START_TIMEOUT_MILLIS = 120_000;
+
+    @Param({"false", "true"})
+    private String skipIfCurrent;
+
+    @Param({"false", "true"})
+    private String cds;
+
+    @Param({"8"})
+    private String poolWarmup;
+
+    private Path jar;
+    private URI probe;
+    private HttpClient client;
+    private Process service;
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException {
+        try (Stream<Path> files = Files.list(TARGET)) {
+            jar = files.filter(file -> file.toString().endsWith(".jar")).findFirst()
+                    .orElseThrow(() -> new IllegalStateException("No jar in " + TARGET + ", run mvn package first"));
+        }
+        probe = URI.create("http://localhost:" + new ServerConfig().getPort() + "/metrics");
+        client = HttpClient.newHttpClient();
+
+        Files.deleteIfExists(ARCHIVE);
+        if (Boolean.parseBoolean(cds)) {
+            service = launch("-XX:ArchiveClassesAtExit=" + ARCHIVE, "-Xlog:cds=error");
+            awaitFirstResponse();
+            stop();
+            if (!Files.exists(ARCHIVE)) {
+                throw new IllegalStateException("Class-data-sharing archive was not written, see " + SERVICE_LOG);
+            }
+        }
+    }
+
+    @Benchmark
+    public int firstResponse() throws IOException, InterruptedException {
+        service = Boolean.parseBoolean(cds) ? launch("-XX:SharedArchiveFile=" + ARCHIVE) : launch();
+        return awaitFirstResponse();
+    }
+
+    @TearDown(Level.Invocation)
+    public void stop() throws InterruptedException {
+        if (service != null) {
+            service.destroy();
+            service.waitFor();
+            service = null;
+        }
+    }
+
+    private Process launch(String... jvmOptions) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(List.of(jvmOptions));
+        command.add("-Dliquibase.skip-if-current=" + skipIfCurrent);
+        command.add("-Ddatasource.pool.warmup=" + poolWarmup);
+        command.add("-Daudit.file=" + TARGET.resolve("benchmark-actions.log"));
+        command.add("-jar");
+        command.add(jar.toString());
+        return new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(SERVICE_LOG.toFile())
+                .start();
+    }
+
+    private int awaitFirstResponse() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(probe).build();
+        long deadline = System.currentTimeMillis() + START_TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            if (!service.isAlive()) {
+                throw new IllegalStateException("Service exited with code " + service.exitValue() + ", see " + SERVICE_LOG);
+            }
+            try {
+                return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+            } catch (ConnectException e) {
+                TimeUnit.MILLISECONDS.sleep(5);
+            }
+        }
+        throw new IllegalStateException("Service has not answered in " + START_TIMEOUT_MILLIS + " ms");
+    }
+}
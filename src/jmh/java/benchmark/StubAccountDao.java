@@ -0,0 +1,31 @@
+package benchmark;
+
+import dao.AccountDao;
+import model.Account;
+
+import java.util.Optional;
+
+/**
+ * Answers without storage, so a benchmark measures the layers above the dao only.
+ */
+class StubAccountDao implements AccountDao {
+    private static final long BALANCE = 50000;
+
+    @Override
+    public Optional<Account> getByUsername(String username) {
+        return Optional.of(new Account(1L, 1L, BALANCE));
+    }
+
+    @Override
+    public void transferByAccountId(Long senderAccountId, Long receiverAccountId, Long amount) {
+    }
+
+    @Override
+    public Long transferByUsername(String senderUsername, String receiverUsername, Long amount, String idempotencyKey) {
+        return BALANCE;
+    }
+
+    @Override
+    public void enableStriping(String username, int stripes) {
+    }
+}
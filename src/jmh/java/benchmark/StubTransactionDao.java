@@ -0,0 +1,18 @@
+package benchmark;
+
+import dao.TransactionConsumer;
+import dao.TransactionDao;
+import model.Transaction;
+
+import java.util.List;
+
+class StubTransactionDao implements TransactionDao {
+    @Override
+    public List<Transaction> getByUsername(String username, Long beforeId, int limit) {
+        return List.of();
+    }
+
+    @Override
+    public void streamByUsername(String username, TransactionConsumer consumer) {
+    }
+}
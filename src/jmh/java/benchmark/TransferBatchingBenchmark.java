@@ -0,0 +1,84 @@
+package benchmark;
+
+import dao.AccountDao;
+import dao.AccountDaoImpl;
+import dao.AccountIdentityCache;
+import dao.BatchingAccountDao;
+import dao.IdempotencyStore;
+import dao.TransactionRunner;
+import dao.UserDao;
+import dao.UserDaoImpl;
+import data.ConnectionPool;
+import data.LiquibaseMigration;
+import exception.InsufficientBalanceException;
+import model.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transfers per second against the database configured in db.properties, one commit per transfer
+ * compared with group commit. Transfers go between random pairs of fresh users, so money only moves around
+ * and balances rarely run out. Not run by default, select it explicitly with the database running.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(32)
+@Fork(1)
+public class TransferBatchingBenchmark {
+    private static final int USERS = 64;
+
+    @Param({"false", "true"})
+    private String batching;
+
+    private AccountDao accountDao;
+    private String[] usernames;
+
+    @Setup
+    public void setUp() {
+        System.setProperty("account.batch.enabled", batching);
+        new LiquibaseMigration().runMigration();
+
+        ConnectionPool connectionPool = new ConnectionPool();
+        TransactionRunner transactionRunner = new TransactionRunner(connectionPool);
+        AccountIdentityCache identityCache = new AccountIdentityCache(connectionPool);
+        accountDao = new BatchingAccountDao(
+                new AccountDaoImpl(connectionPool, transactionRunner, identityCache, new IdempotencyStore(connectionPool)),
+                transactionRunner);
+
+        UserDao userDao = new UserDaoImpl(connectionPool, transactionRunner, identityCache);
+        String prefix = "bench-" + UUID.randomUUID().toString().substring(0, 8) + "-";
+        usernames = new String[USERS];
+        for (int i = 0; i < USERS; i++) {
+            usernames[i] = userDao.create(new User(null, prefix + i, "")).getUsername();
+        }
+    }
+
+    @Benchmark
+    public Long transfer() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int sender = random.nextInt(USERS);
+        int receiver = (sender + 1 + random.nextInt(USERS - 1)) % USERS;
+        try {
+            return accountDao.transferByUsername(usernames[sender], usernames[receiver], 1L, null);
+        } catch (InsufficientBalanceException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package benchmark;
+
+import Service.AccountService;
+import Service.AccountServiceImpl;
+import dto.TransferRequest;
+import dto.TransferResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Validation, amount conversion and counters of a transfer, the dao answers straight away.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransferServiceBenchmark {
+    private AccountService accountService;
+    private TransferRequest transferRequest;
+
+    @Setup
+    public void setUp() {
+        accountService = new AccountServiceImpl(new StubAccountDao(), new StubTransactionDao());
+        transferRequest = new TransferRequest("receiver", new BigDecimal("12.34"));
+    }
+
+    @Benchmark
+    public TransferResponse transfer() {
+        return accountService.transferToUsername("sender", transferRequest, null);
+    }
+
+    @Benchmark
+    public TransferResponse transferWithIdempotencyKey() {
+        return accountService.transferToUsername("sender", transferRequest, "3f6c1b0e-6a53-4d7a-9a55-1f0f0c3e2b71");
+    }
+}
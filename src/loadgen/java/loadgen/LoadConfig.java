@@ -0,0 +1,52 @@
+package loadgen;
+
+import lombok.Getter;
+import utils.PropertiesLoader;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Properties;
+
+@Getter
+public class LoadConfig {
+    private final String target;
+    private final boolean inProcess;
+    private final int users;
+    private final String password;
+    private final double rate;
+    private final Duration warmup;
+    private final Duration duration;
+    private final Duration requestTimeout;
+    private final int maxInFlight;
+    private final Map<Operation, Integer> mix;
+    private final Path result;
+
+    public LoadConfig() {
+        Properties loadProperties = PropertiesLoader.load("/loadgen.properties");
+
+        target = loadProperties.getProperty("loadgen.target", "http://localhost:8080");
+        inProcess = Boolean.parseBoolean(loadProperties.getProperty("loadgen.in-process", "false"));
+        users = Integer.parseInt(loadProperties.getProperty("loadgen.users", "100"));
+        password = loadProperties.getProperty("loadgen.password", "load-test-password");
+        rate = Double.parseDouble(loadProperties.getProperty("loadgen.rate", "500"));
+        warmup = Duration.parse(loadProperties.getProperty("loadgen.warmup", "PT10S"));
+        duration = Duration.parse(loadProperties.getProperty("loadgen.duration", "PT30S"));
+        requestTimeout = Duration.parse(loadProperties.getProperty("loadgen.request-timeout", "PT10S"));
+        maxInFlight = Integer.parseInt(loadProperties.getProperty("loadgen.max-in-flight", "10000"));
+        mix = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            int weight = Integer.parseInt(loadProperties.getProperty("loadgen.mix." + operation.getName(), "0"));
+            if (weight > 0) {
+                mix.put(operation, weight);
+            }
+        }
+        String resultFile = loadProperties.getProperty("loadgen.result", "");
+        result = resultFile.isBlank() ? null : Path.of(resultFile);
+
+        if (users < 2 || rate <= 0 || mix.isEmpty()) {
+            throw new IllegalArgumentException("At least two users, a positive rate and an operation mix are required");
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package loadgen;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hc.core5.http.HttpStatus;
+import server.ServerConfig;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open loop load: requests are started on a fixed schedule at the configured rate whether or not earlier ones
+ * have been answered, like independent clients would send them. Users are signed up first, then every request
+ * is one operation of the configured mix on behalf of a random user.
+ */
+@Slf4j
+public class LoadGenerator {
+    //Server main class is in the default package, it can only be called reflectively
+    private static final String SERVER_MAIN_CLASS = "InfiniteSynergyTestTask";
+    private static final int SEED_THREADS = 16;
+    private static final int SEED_ATTEMPTS = 100;
+    private static final long SEED_RETRY_MILLIS = 200;
+    private static final long SERVER_START_TIMEOUT_MILLIS = 120_000;
+    private static final String TRANSFER_AMOUNT = "0.01";
+
+    private final LoadConfig config;
+    private final URI target;
+    private final HttpClient client;
+    private final ObjectMapper mapper;
+    private final Operation[] weightedOperations;
+    private final Map<Operation, OperationStats> stats;
+    private final AtomicInteger inFlight;
+    private Session[] sessions;
+
+    public LoadGenerator(LoadConfig config, URI target) {
+        this.config = config;
+        this.target = target;
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(config.getRequestTimeout())
+                .build();
+        mapper = new ObjectMapper();
+        List<Operation> operations = new ArrayList<>();
+        config.getMix().forEach((operation, weight) -> {
+            for (int i = 0; i < weight; i++) {
+                operations.add(operation);
+            }
+        });
+        weightedOperations = operations.toArray(new Operation[0]);
+        stats = new EnumMap<>(Operation.class);
+        for (Operation operation : config.getMix().keySet()) {
+            stats.put(operation, new OperationStats());
+        }
+        inFlight = new AtomicInteger();
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadConfig config = new LoadConfig();
+        URI target = config.isInProcess() ? startInProcess() : URI.create(config.getTarget());
+        LoadGenerator generator = new LoadGenerator(config, target);
+        generator.seed();
+        generator.run();
+        generator.report();
+        //Server threads of an in process run are not daemons
+        System.exit(0);
+    }
+
+    /**
+     * Signs up the users in parallel, retrying while the server refuses sign ups over its limits.
+     */
+    public void seed() throws InterruptedException {
+        log.info("Signing up {} users at {}", config.getUsers(), target);
+        String prefix = "load-" + UUID.randomUUID().toString().substring(0, 8) + "-";
+        ExecutorService executor = Executors.newFixedThreadPool(SEED_THREADS);
+        try {
+            List<Future<Session>> futures = new ArrayList<>(config.getUsers());
+            for (int i = 0; i < config.getUsers(); i++) {
+                String username = prefix + i;
+                futures.add(executor.submit(() -> signUp(username)));
+            }
+            sessions = new Session[futures.size()];
+            for (int i = 0; i < sessions.length; i++) {
+                sessions[i] = futures.get(i).get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Users could not be signed up: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void run() throws InterruptedException {
+        log.info("Sending {} requests per second for {} after {} of warmup",
+                config.getRate(), config.getDuration(), config.getWarmup());
+        double intervalNanos = 1e9 / config.getRate();
+        long start = System.nanoTime();
+        long measuredFrom = start + config.getWarmup().toNanos();
+        long end = measuredFrom + config.getDuration().toNanos();
+        for (long sent = 0; ; ) {
+            long due = start + (long) (sent * intervalNanos);
+            if (due - end >= 0) {
+                break;
+            }
+            long now = System.nanoTime();
+            if (due - now > 0) {
+                LockSupport.parkNanos(due - now);
+                continue;
+            }
+            //Requests that came due while parked are all sent now, their latency still counts from when they were due
+            send(weightedOperations[ThreadLocalRandom.current().nextInt(weightedOperations.length)], due,
+                    due - measuredFrom >= 0);
+            sent++;
+        }
+
+        long deadline = System.nanoTime() + config.getRequestTimeout().toNanos();
+        while (inFlight.get() > 0 && System.nanoTime() - deadline < 0) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+    }
+
+    public void report() throws IOException {
+        double seconds = config.getDuration().toNanos() / 1e9;
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("target", target.toString());
+        result.put("users", config.getUsers());
+        result.put("rate", config.getRate());
+        result.put("durationSeconds", seconds);
+        Map<String, Object> operations = new LinkedHashMap<>();
+
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("%n%-12s %9s %8s %8s %10s %9s %9s %9s %9s %9s%n",
+                "operation", "requests", "errors", "skipped", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+        Map<Operation, OperationStats.Summary> summaries = new EnumMap<>(Operation.class);
+        stats.forEach((operation, operationStats) -> summaries.put(operation, operationStats.summarize()));
+        long total = 0;
+        for (Map.Entry<Operation, OperationStats.Summary> entry : summaries.entrySet()) {
+            OperationStats.Summary summary = entry.getValue();
+            total += summary.getRequests();
+            out.append(String.format("%-12s %9d %8d %8d %10.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                    entry.getKey().getName(), summary.getRequests(), summary.getErrors(), summary.getSkipped(),
+                    summary.getRequests() / seconds, summary.getP50(), summary.getP90(), summary.getP99(),
+                    summary.getP999(), summary.getMax()));
+            operations.put(entry.getKey().getName(), summary);
+        }
+        out.append(String.format("%-12s %9d %28.1f%n", "total", total, total / seconds));
+        summaries.forEach((operation, summary) ->
+                out.append(String.format("%-12s statuses %s%n", operation.getName(), summary.getStatuses())));
+        System.out.print(out);
+
+        result.put("throughput", total / seconds);
+        result.put("operations", operations);
+        if (config.getResult() != null) {
+            if (config.getResult().getParent() != null) {
+                Files.createDirectories(config.getResult().getParent());
+            }
+            mapper.writerWithDefaultPrettyPrinter().writeValue(config.getResult().toFile(), result);
+            log.info("Result is written to {}", config.getResult());
+        }
+    }
+
+    private void send(Operation operation, long due, boolean measured) {
+        OperationStats operationStats = stats.get(operation);
+        if (inFlight.incrementAndGet() > config.getMaxInFlight()) {
+            inFlight.decrementAndGet();
+            if (measured) {
+                operationStats.skip();
+            }
+            return;
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int index = random.nextInt(sessions.length);
+        Session session = sessions[index];
+        HttpRequest request = switch (operation) {
+            case GET_MONEY -> request("/money", session.getAccessToken()).GET().build();
+            case SEND_MONEY -> {
+                Session receiver = sessions[(index + 1 + random.nextInt(sessions.length - 1)) % sessions.length];
+                yield post(request("/money", session.getAccessToken()),
+                        "{\"to\":\"" + receiver.getUsername() + "\",\"amount\":" + TRANSFER_AMOUNT + "}");
+            }
+            case SIGNIN -> post(request("/signin", null), credentials(session.getUsername()));
+            case REFRESH -> post(request("/refresh", null), "{\"refreshToken\":\"" + session.getRefreshToken() + "\"}");
+        };
+
+        client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()).whenComplete((response, error) -> {
+            long latency = System.nanoTime() - due;
+            inFlight.decrementAndGet();
+            int status = error != null ? OperationStats.NO_RESPONSE : response.statusCode();
+            if (status == HttpStatus.SC_OK && (operation == Operation.SIGNIN || operation == Operation.REFRESH)) {
+                updateTokens(session, response.body());
+            }
+            if (measured) {
+                operationStats.record(status, latency);
+            }
+        });
+    }
+
+    private Session signUp(String username) throws IOException, InterruptedException {
+        HttpRequest request = post(request("/signup", null), credentials(username));
+        for (int attempt = 1; ; attempt++) {
+            HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            if (response.statusCode() == HttpStatus.SC_OK) {
+                JsonNode tokens = mapper.readTree(response.body());
+                return new Session(username, tokens.path("accessToken").asText(null), tokens.path("refreshToken").asText(null));
+            }
+            boolean limited = response.statusCode() == HttpStatus.SC_TOO_MANY_REQUESTS
+                    || response.statusCode() == HttpStatus.SC_SERVICE_UNAVAILABLE;
+            if (!limited || attempt == SEED_ATTEMPTS) {
+                throw new IllegalStateException("Sign up of " + username + " failed with status " + response.statusCode());
+            }
+            TimeUnit.MILLISECONDS.sleep(SEED_RETRY_MILLIS);
+        }
+    }
+
+    private void updateTokens(Session session, byte[] body) {
+        try {
+            JsonNode tokens = mapper.readTree(body);
+            session.update(tokens.path("accessToken").asText(null), tokens.path("refreshToken").asText(null));
+        } catch (IOException e) {
+            log.warn("Tokens could not be read: {}", e.getMessage());
+        }
+    }
+
+    private HttpRequest.Builder request(String path, String accessToken) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(target.resolve(path)).timeout(config.getRequestTimeout());
+        if (accessToken != null) {
+            builder.header("Authorization", "Bearer " + accessToken);
+        }
+        return builder;
+    }
+
+    private HttpRequest post(HttpRequest.Builder builder, String body) {
+        return builder.header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private String credentials(String username) {
+        return "{\"login\":\"" + username + "\",\"password\":\"" + config.getPassword() + "\"}";
+    }
+
+    /**
+     * Starts the server in this JVM with its own configuration and waits until it accepts requests.
+     */
+    private static URI startInProcess() throws InterruptedException {
+        URI target = URI.create("http://localhost:" + new ServerConfig().getPort());
+        Thread server = new Thread(() -> {
+            try {
+                Class.forName(SERVER_MAIN_CLASS).getMethod("main", String[].class).invoke(null, (Object) new String[0]);
+            } catch (ReflectiveOperationException e) {
+                log.error("Server could not be started: {}", e.getMessage());
+            }
+        }, "in-process-server");
+        server.setDaemon(true);
+        server.start();
+
+        HttpClient probe = HttpClient.newHttpClient();
+        long deadline = System.currentTimeMillis() + SERVER_START_TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                probe.send(HttpRequest.newBuilder(target.resolve("/")).build(), HttpResponse.BodyHandlers.discarding());
+                return target;
+            } catch (ConnectException e) {
+                TimeUnit.MILLISECONDS.sleep(100);
+            } catch (IOException e) {
+                throw new IllegalStateException("Server is not responding: " + e.getMessage(), e);
+            }
+        }
+        throw new IllegalStateException("Server has not started in " + SERVER_START_TIMEOUT_MILLIS + " ms");
+    }
+}
@@ -0,0 +1,15 @@
+package loadgen;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public enum Operation {
+    GET_MONEY("get-money"),
+    SEND_MONEY("send-money"),
+    SIGNIN("signin"),
+    REFRESH("refresh");
+
+    private final String name;
+}
@@ -0,0 +1,77 @@
+package loadgen;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Every latency of an operation is kept, eight bytes per request, so percentiles are exact.
+ * Latency is measured from the time the request was due, not from the time it was sent,
+ * so a server that falls behind is charged for the wait of the requests queued behind it.
+ */
+public class OperationStats {
+    //Status of requests that failed without a response
+    static final int NO_RESPONSE = 0;
+
+    private final Map<Integer, Long> statuses;
+    private long[] latencies;
+    private int count;
+    private long skipped;
+
+    public OperationStats() {
+        statuses = new TreeMap<>();
+        latencies = new long[1024];
+    }
+
+    public synchronized void record(int status, long latencyNanos) {
+        statuses.merge(status, 1L, Long::sum);
+        if (count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, count * 2);
+        }
+        latencies[count++] = latencyNanos;
+    }
+
+    public synchronized void skip() {
+        skipped++;
+    }
+
+    public synchronized Summary summarize() {
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        long errors = statuses.entrySet().stream()
+                .filter(entry -> entry.getKey() < 200 || entry.getKey() >= 300)
+                .mapToLong(Map.Entry::getValue)
+                .sum();
+        return new Summary(count, errors, skipped, new TreeMap<>(statuses),
+                percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99), percentile(sorted, 99.9),
+                count > 0 ? sorted[count - 1] / 1e6 : 0);
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(index, 0)] / 1e6;
+    }
+
+    /**
+     * Latencies in milliseconds.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Summary {
+        private final long requests;
+        private final long errors;
+        private final long skipped;
+        private final Map<Integer, Long> statuses;
+        private final double p50;
+        private final double p90;
+        private final double p99;
+        private final double p999;
+        private final double max;
+    }
+}
@@ -0,0 +1,28 @@
+package loadgen;
+
+import lombok.Getter;
+
+/**
+ * Seeded user and its latest tokens, replaced by successful sign ins and refreshes.
+ */
+@Getter
+public class Session {
+    private final String username;
+    private volatile String accessToken;
+    private volatile String refreshToken;
+
+    public Session(String username, String accessToken, String refreshToken) {
+        this.username = username;
+        this.accessToken = accessToken;
+        this.refreshToken = refreshToken;
+    }
+
+    public void update(String accessToken, String refreshToken) {
+        if (accessToken != null) {
+            this.accessToken = accessToken;
+        }
+        if (refreshToken != null) {
+            this.refreshToken = refreshToken;
+        }
+    }
+}
@@ -2,33 +2,130 @@ import Service.AccountService;
 import Service.AccountServiceImpl;
 import Service.AuthenticationService;
 import Service.AuthenticationServiceImpl;
+import audit.AuditConfig;
+import audit.AuditLogger;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import controller.AccountController;
 import controller.AuthenticationController;
+import controller.MetricsController;
 import controller.RoutingController;
 import dao.AccountDao;
 import dao.AccountDaoImpl;
+import dao.AccountIdentityCache;
+import dao.BatchingAccountDao;
+import dao.IdempotencyStore;
+import dao.InMemoryAccountDao;
+import dao.InMemoryTransactionDao;
+import dao.InMemoryUserDao;
+import dao.LedgerAccountDao;
+import dao.TransactionDao;
+import dao.TransactionDaoImpl;
+import dao.TransactionRunner;
 import dao.UserDao;
 import dao.UserDaoImpl;
 import data.ConnectionPool;
 import data.LiquibaseMigration;
+import ledger.Ledger;
+import ledger.LedgerConfig;
+import ledger.LedgerExporter;
+import limit.ConcurrencyLimiter;
+import limit.LimitConfig;
+import limit.RateLimiter;
+import limit.TrustedProxies;
+import server.ServerConfig;
+import utils.JwtTokenUtils;
+import utils.PasswordHasher;
+import utils.PropertiesLoader;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
 
 public class InfiniteSynergyTestTask {
+    private static final String MEMORY_STORAGE = "memory";
+
     public static void main(String[] args) {
-        LiquibaseMigration migration = new LiquibaseMigration();
-        migration.runMigration();
+        ServerConfig serverConfig = new ServerConfig();
+        AuditLogger auditLogger = createAuditLogger(new AuditConfig());
+        JwtTokenUtils tokenUtils = new JwtTokenUtils();
+        ObjectMapper mapper = new ObjectMapper();
+
+        UserDao userDao;
+        AccountDao accountDao;
+        TransactionDao transactionDao;
+        AccountIdentityCache identityCache;
+        if (MEMORY_STORAGE.equals(PropertiesLoader.load("/db.properties").getProperty("dao.storage"))) {
+            InMemoryTransactionDao memoryTransactionDao = new InMemoryTransactionDao();
+            InMemoryAccountDao memoryAccountDao = new InMemoryAccountDao(memoryTransactionDao);
+            userDao = new InMemoryUserDao(memoryAccountDao);
+            accountDao = memoryAccountDao;
+            transactionDao = memoryTransactionDao;
+            identityCache = new AccountIdentityCache(memoryAccountDao::getIdentity);
+        } else {
+            //Pool warm-up and migration both wait on the database, so the pool is filled while the migration runs
+            CompletableFuture<ConnectionPool> connectionPoolFuture = CompletableFuture.supplyAsync(ConnectionPool::new,
+                task -> new Thread(task, "pool-warmup").start());
+            LiquibaseMigration migration = new LiquibaseMigration();
+            migration.runMigration();
 
-        ConnectionPool connectionPool = new ConnectionPool();
+            ConnectionPool connectionPool = connectionPoolFuture.join();
+            TransactionRunner transactionRunner = new TransactionRunner(connectionPool);
+            identityCache = new AccountIdentityCache(connectionPool);
+            IdempotencyStore idempotencyStore = new IdempotencyStore(connectionPool);
 
-        UserDao userDao = new UserDaoImpl(connectionPool);
-        AuthenticationService authenticationService = new AuthenticationServiceImpl(userDao);
-        AuthenticationController authenticationController = new AuthenticationController(authenticationService);
+            userDao = new UserDaoImpl(connectionPool, transactionRunner, identityCache);
+            accountDao = createAccountDao(connectionPool, transactionRunner, identityCache, idempotencyStore,
+                    new LedgerConfig());
+            transactionDao = new TransactionDaoImpl(connectionPool, identityCache);
+        }
 
-        AccountDao accountDao = new AccountDaoImpl(connectionPool);
-        AccountService accountService = new AccountServiceImpl(accountDao);
-        AccountController accountController = new AccountController(accountService);
+        AuthenticationService authenticationService = new AuthenticationServiceImpl(userDao, identityCache, new PasswordHasher(),
+                tokenUtils);
+        AuthenticationController authenticationController = new AuthenticationController(authenticationService, mapper,
+                auditLogger);
 
-        RoutingController controller = new RoutingController(authenticationController, accountController);
-        Server server = new Server(8080, controller);
+        AccountService accountService = new AccountServiceImpl(accountDao, transactionDao);
+        AccountController accountController = new AccountController(accountService, mapper, tokenUtils, auditLogger);
+
+        LimitConfig limitConfig = new LimitConfig();
+        RoutingController controller = new RoutingController(serverConfig, authenticationController, accountController,
+                new MetricsController(), tokenUtils, new RateLimiter(limitConfig), new ConcurrencyLimiter(limitConfig),
+                new TrustedProxies(limitConfig.getTrustedProxies()));
+        Server server = new Server(serverConfig, controller);
         server.start();
     }
-}
\ No newline at end of file
+
+    private static AuditLogger createAuditLogger(AuditConfig auditConfig) {
+        AuditLogger auditLogger;
+        try {
+            auditLogger = new AuditLogger(auditConfig);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Audit log could not be opened", e);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(auditLogger::close, "audit-shutdown"));
+        return auditLogger;
+    }
+
+    private static AccountDao createAccountDao(ConnectionPool connectionPool, TransactionRunner transactionRunner,
+                                               AccountIdentityCache identityCache, IdempotencyStore idempotencyStore,
+                                               LedgerConfig ledgerConfig) {
+        if (!ledgerConfig.isEnabled()) {
+            return new BatchingAccountDao(new AccountDaoImpl(connectionPool, transactionRunner, identityCache, idempotencyStore),
+                    transactionRunner);
+        }
+
+        LedgerExporter exporter = new LedgerExporter(transactionRunner, ledgerConfig);
+        //Started first, the backlog is bounded and recovery queues every entry the database does not have yet
+        exporter.start();
+        Ledger ledger;
+        try {
+            ledger = new Ledger(ledgerConfig, exporter);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ledger could not be recovered", e);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(ledger::close, "ledger-shutdown"));
+        LedgerAccountDao accountDao = new LedgerAccountDao(transactionRunner, identityCache, idempotencyStore, ledger);
+        accountDao.reconcileClaims(exporter);
+        return accountDao;
+    }
+}
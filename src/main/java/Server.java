@@ -1,35 +1,31 @@
 import controller.RoutingController;
 import lombok.extern.slf4j.Slf4j;
+import server.NioServerEngine;
+import server.ServerConfig;
+import server.ServerEngine;
+import server.VirtualThreadServerEngine;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 @Slf4j
 public class Server {
-    private final int port;
+    private final ServerConfig config;
     private final RoutingController controller;
 
-    public Server(int port, RoutingController controller) {
-        this.port = port;
+    public Server(ServerConfig config, RoutingController controller) {
+        this.config = config;
         this.controller = controller;
     }
 
     public void start() {
-        try (ServerSocket serverSocket = new ServerSocket(port, 50)) {
+        ServerEngine engine = switch (config.getEngine()) {
+            case "nio" -> new NioServerEngine(config, controller);
+            case "virtual" -> new VirtualThreadServerEngine(config, controller);
+            default -> throw new IllegalArgumentException("Unknown server engine: " + config.getEngine());
+        };
 
-            log.info("Server started on port {}", port);
-            ExecutorService executorService = Executors.newCachedThreadPool();
-
-            while (!serverSocket.isClosed()) {
-                Socket clientSocket = serverSocket.accept();
-                if (clientSocket != null) {
-                    log.debug("Client connected");
-                    executorService.submit(() -> controller.handleRequest(clientSocket));
-                }
-            }
+        try {
+            engine.start();
         } catch (IOException e) {
             log.error(e.getMessage());
         }
@@ -1,10 +1,15 @@
 package Service;
 
 import dto.BalanceResponse;
+import dto.ExportFormat;
+import dto.HistoryResponse;
 import dto.TransferRequest;
 import dto.TransferResponse;
+import utils.StreamingBody;
 
 public interface AccountService {
     BalanceResponse checkBalance(String username);
-    TransferResponse transferToUsername(String senderUsername, TransferRequest transferRequest);
+    TransferResponse transferToUsername(String senderUsername, TransferRequest transferRequest, String idempotencyKey);
+    HistoryResponse getHistory(String username, String cursor, String limit);
+    StreamingBody exportHistory(String username, ExportFormat format);
 }
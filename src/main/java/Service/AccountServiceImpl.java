@@ -1,22 +1,55 @@
 package Service;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import dao.AccountDao;
+import dao.TransactionDao;
 import dto.BalanceResponse;
+import dto.ExportFormat;
+import dto.HistoryEntry;
+import dto.HistoryResponse;
 import dto.TransferRequest;
 import dto.TransferResponse;
 import exception.InsufficientBalanceException;
 import exception.UserNotFoundException;
 import lombok.extern.slf4j.Slf4j;
+import metrics.Metrics;
 import model.Account;
+import model.Transaction;
+import utils.StreamingBody;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
 @Slf4j
 public class AccountServiceImpl implements AccountService {
+    private static final int DEFAULT_HISTORY_PAGE = 20;
+    private static final int MAX_HISTORY_PAGE = 100;
+    private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 255;
+
     private final AccountDao accountDao;
+    private final TransactionDao transactionDao;
+    private final JsonFactory jsonFactory;
+    private final LongAdder transfers;
+    private final LongAdder insufficientBalance;
 
-    public AccountServiceImpl(AccountDao accountDao) {
+    public AccountServiceImpl(AccountDao accountDao, TransactionDao transactionDao) {
         this.accountDao = accountDao;
+        this.transactionDao = transactionDao;
+        jsonFactory = new JsonFactory();
+        jsonFactory.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        //Lines are ended explicitly, no separator is needed between root values
+        jsonFactory.setRootValueSeparator(null);
+        transfers = Metrics.counter("transfers_total", "Transfers completed, idempotent repeats included");
+        insufficientBalance = Metrics.counter("transfer_insufficient_balance_total",
+                "Transfers refused for insufficient balance");
     }
 
     @Override
@@ -28,29 +61,133 @@ public class AccountServiceImpl implements AccountService {
         return new BalanceResponse(BigDecimal.valueOf(account.getBalance() / 100.0));
     }
 
+    /**
+     * Transfers repeated with the same idempotency key are applied once, repeats return the balance of the first one.
+     */
     @Override
-    public TransferResponse transferToUsername(String senderUsername, TransferRequest transferRequest) {
-        //Checking if account exists
-        Account senderAccount = accountDao.getByUsername(senderUsername).orElseThrow(
-                () ->  new UserNotFoundException("User " + senderUsername + " not found or does not have an account")
-        );
-
-        //Checking if balance is enough for transaction
+    public TransferResponse transferToUsername(String senderUsername, TransferRequest transferRequest, String idempotencyKey) {
+        if (transferRequest.getReceiverUsername() == null || transferRequest.getAmount() == null) {
+            throw new IllegalArgumentException("Receiver and amount should not be empty");
+        }
+        if (senderUsername.equals(transferRequest.getReceiverUsername())) {
+            throw new IllegalArgumentException("Money can not be sent to the same user");
+        }
         Long amountLong = transferRequest.getAmount().multiply(BigDecimal.valueOf(100)).longValue();
-        if (senderAccount.getBalance() < amountLong) {
-            throw new InsufficientBalanceException("User " + senderUsername + " has insufficient balance");
+        if (amountLong <= 0) {
+            throw new IllegalArgumentException("Amount should be positive");
+        }
+        if (idempotencyKey != null && (idempotencyKey.isBlank() || idempotencyKey.length() > MAX_IDEMPOTENCY_KEY_LENGTH)) {
+            throw new IllegalArgumentException("Idempotency key should not be blank or longer than "
+                    + MAX_IDEMPOTENCY_KEY_LENGTH + " characters");
         }
 
-        //Checking if account exists
-        Account receiverAccount = accountDao.getByUsername(transferRequest.getReceiverUsername()).orElseThrow(
-                () -> new UserNotFoundException("User " + transferRequest.getReceiverUsername() +
-                            " not found or does not have an account")
-        );
-
-        accountDao.transferByAccountId(senderAccount.getId(), receiverAccount.getId(), amountLong);
+        //Account lookup, balance check and transfer are done atomically by the database
+        Long balance;
+        try {
+            balance = accountDao.transferByUsername(senderUsername, transferRequest.getReceiverUsername(), amountLong,
+                    idempotencyKey);
+        } catch (InsufficientBalanceException e) {
+            insufficientBalance.increment();
+            throw e;
+        }
+        transfers.increment();
         log.debug("Transaction of {} sent from user {} to user {}",
                 amountLong, senderUsername, transferRequest.getReceiverUsername());
 
-        return new TransferResponse(BigDecimal.valueOf(senderAccount.getBalance() / 100.0).subtract(transferRequest.getAmount()));
+        return new TransferResponse(BigDecimal.valueOf(balance / 100.0));
+    }
+
+    /**
+     * Cursor is the id of the last transaction of the previous page, a page one longer than requested
+     * is read to tell whether another page follows.
+     */
+    @Override
+    public HistoryResponse getHistory(String username, String cursor, String limit) {
+        Long beforeId = null;
+        int pageSize = DEFAULT_HISTORY_PAGE;
+        try {
+            if (cursor != null && !cursor.isEmpty()) {
+                beforeId = Long.parseLong(cursor);
+            }
+            if (limit != null && !limit.isEmpty()) {
+                pageSize = Integer.parseInt(limit);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Cursor and limit should be numbers");
+        }
+        if (pageSize <= 0 || pageSize > MAX_HISTORY_PAGE) {
+            throw new IllegalArgumentException("Limit should be between 1 and " + MAX_HISTORY_PAGE);
+        }
+
+        List<Transaction> transactions = transactionDao.getByUsername(username, beforeId, pageSize + 1);
+        boolean hasMore = transactions.size() > pageSize;
+        List<HistoryEntry> entries = new ArrayList<>(Math.min(transactions.size(), pageSize));
+        for (Transaction transaction : transactions.subList(0, Math.min(transactions.size(), pageSize))) {
+            boolean sent = username.equals(transaction.getSenderUsername());
+            entries.add(new HistoryEntry(
+                    transaction.getId(),
+                    sent ? "sent" : "received",
+                    sent ? transaction.getReceiverUsername() : transaction.getSenderUsername(),
+                    BigDecimal.valueOf(transaction.getAmount() / 100.0),
+                    transaction.getCreatedAt().toString()
+            ));
+        }
+        log.debug("User {} has requested {} history entries", username, entries.size());
+        String nextCursor = hasMore ? String.valueOf(entries.get(entries.size() - 1).getId()) : null;
+        return new HistoryResponse(entries, nextCursor);
+    }
+
+    /**
+     * Rows are written as the database returns them, one JSON object per line or one CSV record per line.
+     */
+    @Override
+    public StreamingBody exportHistory(String username, ExportFormat format) {
+        return out -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            if (format == ExportFormat.CSV) {
+                writer.write("id,direction,counterparty,amount,created_at\n");
+                transactionDao.streamByUsername(username, transaction -> writeCsv(writer, username, transaction));
+            } else {
+                JsonGenerator generator = jsonFactory.createGenerator(writer);
+                transactionDao.streamByUsername(username, transaction -> writeJson(generator, username, transaction));
+                generator.flush();
+            }
+            writer.flush();
+            log.debug("User {} has exported transaction history as {}", username, format);
+        };
+    }
+
+    private void writeJson(JsonGenerator generator, String username, Transaction transaction) throws IOException {
+        boolean sent = username.equals(transaction.getSenderUsername());
+        generator.writeStartObject();
+        generator.writeNumberField("id", transaction.getId());
+        generator.writeStringField("direction", sent ? "sent" : "received");
+        generator.writeStringField("counterparty", sent ? transaction.getReceiverUsername() : transaction.getSenderUsername());
+        generator.writeNumberField("amount", BigDecimal.valueOf(transaction.getAmount() / 100.0));
+        generator.writeStringField("createdAt", transaction.getCreatedAt().toString());
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+
+    private void writeCsv(Writer writer, String username, Transaction transaction) throws IOException {
+        boolean sent = username.equals(transaction.getSenderUsername());
+        writer.write(String.valueOf(transaction.getId()));
+        writer.write(sent ? ",sent," : ",received,");
+        writeCsvField(writer, sent ? transaction.getReceiverUsername() : transaction.getSenderUsername());
+        writer.write(',');
+        writer.write(BigDecimal.valueOf(transaction.getAmount() / 100.0).toString());
+        writer.write(',');
+        writer.write(transaction.getCreatedAt().toString());
+        writer.write('\n');
+    }
+
+    private void writeCsvField(Writer writer, String value) throws IOException {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
     }
 }
@@ -1,5 +1,6 @@
 package Service;
 
+import dao.AccountIdentityCache;
 import dao.UserDao;
 import dto.AuthenticationRequest;
 import dto.AuthenticationResponse;
@@ -8,20 +9,26 @@ import dto.RegistrationResponse;
 import exception.AuthenticationException;
 import exception.InvalidTokenException;
 import exception.UserNotFoundException;
-import io.jsonwebtoken.Claims;
 import lombok.extern.slf4j.Slf4j;
+import model.AccountIdentity;
 import model.User;
-import org.mindrot.jbcrypt.BCrypt;
 import utils.JwtTokenUtils;
+import utils.PasswordHasher;
+import utils.TokenVerification;
 
 @Slf4j
 public class AuthenticationServiceImpl implements AuthenticationService {
     private final UserDao userDao;
+    private final AccountIdentityCache identityCache;
     private final JwtTokenUtils tokenUtils;
+    private final PasswordHasher passwordHasher;
 
-    public AuthenticationServiceImpl(UserDao userDao) {
+    public AuthenticationServiceImpl(UserDao userDao, AccountIdentityCache identityCache, PasswordHasher passwordHasher,
+                                     JwtTokenUtils tokenUtils) {
         this.userDao = userDao;
-        tokenUtils = new JwtTokenUtils();
+        this.identityCache = identityCache;
+        this.passwordHasher = passwordHasher;
+        this.tokenUtils = tokenUtils;
     }
 
     @Override
@@ -30,7 +37,7 @@ public class AuthenticationServiceImpl implements AuthenticationService {
                 regRequest.getPassword() == null || regRequest.getPassword().isEmpty()) {
             throw new IllegalArgumentException("Login and password should not be empty");
         }
-        String hashedPassword = BCrypt.hashpw(regRequest.getPassword(), BCrypt.gensalt());
+        String hashedPassword = passwordHasher.hash(regRequest.getPassword());
         User user = userDao.create(new User(null, regRequest.getLogin(), hashedPassword));
         log.debug("Created user id: {}, username: {}", user.getId(), user.getUsername());
         String accessToken = tokenUtils.generateAccessToken(user);
@@ -47,7 +54,7 @@ public class AuthenticationServiceImpl implements AuthenticationService {
         User user = userDao.getByUsername(authRequest.getLogin()).orElseThrow(
                 () -> new UserNotFoundException("Username " + " not found")
         );
-        if (!BCrypt.checkpw(authRequest.getPassword(), user.getPassword())) {
+        if (!passwordHasher.check(authRequest.getPassword(), user.getPassword())) {
             throw new AuthenticationException("Wrong password");
         }
         log.debug("User id: {}, username: {} has logged in", user.getId(), user.getUsername());
@@ -58,9 +65,9 @@ public class AuthenticationServiceImpl implements AuthenticationService {
 
     @Override
     public AuthenticationResponse createAccessToken(String refreshToken) {
-        if (tokenUtils.validateRefreshToken(refreshToken)) {
-            Claims claims = tokenUtils.getRefreshClaims(refreshToken);
-            User user = userDao.getByUsername(claims.getSubject()).orElseThrow();
+        TokenVerification verification = tokenUtils.verifyRefreshToken(refreshToken);
+        if (verification.isValid()) {
+            User user = tokenSubject(verification.getSubject());
             String accessToken = tokenUtils.generateAccessToken(user);
             return new AuthenticationResponse(accessToken, null);
         }
@@ -69,13 +76,23 @@ public class AuthenticationServiceImpl implements AuthenticationService {
 
     @Override
     public AuthenticationResponse createRefreshToken(String refreshToken) {
-        if (tokenUtils.validateRefreshToken(refreshToken)) {
-            final Claims claims = tokenUtils.getRefreshClaims(refreshToken);
-            User user = userDao.getByUsername(claims.getSubject()).orElseThrow();
+        TokenVerification verification = tokenUtils.verifyRefreshToken(refreshToken);
+        if (verification.isValid()) {
+            User user = tokenSubject(verification.getSubject());
             String accessToken = tokenUtils.generateAccessToken(user);
             String newRefreshToken = tokenUtils.generateRefreshToken(user);
             return new AuthenticationResponse(accessToken, newRefreshToken);
         }
         throw new InvalidTokenException("Invalid token");
     }
+
+    /**
+     * Tokens carry only the username, so the user is rebuilt from the identity cache without reading the password hash.
+     * A validly signed token of a user that no longer exists, e.g. after a restart with in-memory storage, is invalid.
+     */
+    private User tokenSubject(String username) {
+        AccountIdentity identity = identityCache.get(username)
+                .orElseThrow(() -> new InvalidTokenException("Invalid token"));
+        return new User(identity.getUserId(), username, null);
+    }
 }
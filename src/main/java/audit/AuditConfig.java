@@ -0,0 +1,35 @@
+package audit;
+
+import lombok.Getter;
+import utils.PropertiesLoader;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Properties;
+
+@Getter
+public class AuditConfig {
+    private final boolean async;
+    private final Path file;
+    private final long maxFileSize;
+    private final int maxBackups;
+    private final int bufferSize;
+    private final int maxBatchSize;
+    private final Duration idleWait;
+    private final OverflowPolicy overflowPolicy;
+
+    public AuditConfig() {
+        Properties auditProperties = PropertiesLoader.load("/audit.properties");
+
+        async = Boolean.parseBoolean(auditProperties.getProperty("audit.async", "true"));
+        file = Path.of(auditProperties.getProperty("audit.file", "data/user_actions.log"));
+        maxFileSize = Long.parseLong(auditProperties.getProperty("audit.file.max-size", "10485760"));
+        maxBackups = Integer.parseInt(auditProperties.getProperty("audit.file.max-backups", "1"));
+        bufferSize = Integer.parseInt(auditProperties.getProperty("audit.buffer-size", "65536"));
+        maxBatchSize = Integer.parseInt(auditProperties.getProperty("audit.batch.max-size", "1024"));
+        idleWait = Duration.parse(auditProperties.getProperty("audit.idle-wait", "PT0.001S"));
+        overflowPolicy = OverflowPolicy.valueOf(
+                auditProperties.getProperty("audit.overflow", "block").toUpperCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,16 @@
+package audit;
+
+/**
+ * Message is formatted by the writer thread, request threads only capture the arguments.
+ */
+final class AuditEvent {
+    final long timestampMillis;
+    final String format;
+    final Object[] arguments;
+
+    AuditEvent(long timestampMillis, String format, Object[] arguments) {
+        this.timestampMillis = timestampMillis;
+        this.format = format;
+        this.arguments = arguments;
+    }
+}
@@ -0,0 +1,82 @@
+package audit;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Appends lines to the audit file through a buffer and rolls it over to numbered backups once it reaches the size limit,
+ * the same way the rolling file appender it replaces did.
+ */
+final class AuditFileWriter implements Closeable {
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final Path file;
+    private final long maxFileSize;
+    private final int maxBackups;
+    private OutputStream out;
+    private long size;
+
+    AuditFileWriter(Path file, long maxFileSize, int maxBackups) throws IOException {
+        this.file = file;
+        this.maxFileSize = maxFileSize;
+        this.maxBackups = maxBackups;
+        open();
+    }
+
+    void write(CharSequence line) throws IOException {
+        byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+        if (size > 0 && size + bytes.length > maxFileSize) {
+            roll();
+        }
+        out.write(bytes);
+        size += bytes.length;
+    }
+
+    /**
+     * Hands buffered lines to the operating system, called once per batch.
+     */
+    void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void roll() throws IOException {
+        out.close();
+        if (maxBackups > 0) {
+            Files.deleteIfExists(backup(maxBackups));
+            for (int i = maxBackups - 1; i >= 1; i--) {
+                if (Files.exists(backup(i))) {
+                    Files.move(backup(i), backup(i + 1), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.move(file, backup(1), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.deleteIfExists(file);
+        }
+        open();
+    }
+
+    private void open() throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        out = new BufferedOutputStream(new FileOutputStream(file.toFile(), true), BUFFER_BYTES);
+        size = Files.size(file);
+    }
+
+    private Path backup(int index) {
+        return file.resolveSibling(file.getFileName() + "." + index);
+    }
+}
@@ -0,0 +1,199 @@
+package audit;
+
+import lombok.extern.slf4j.Slf4j;
+import metrics.Metrics;
+import org.apache.log4j.Level;
+import org.apache.log4j.PatternLayout;
+import org.apache.log4j.RollingFileAppender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.helpers.MessageFormatter;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Log of user actions. Request threads put events on a lock-free ring buffer and return,
+ * a single writer thread formats them and appends them to the file in batches.
+ * With audit.async disabled events go synchronously to the "actions" logger instead, its rolling file appender
+ * is only set up in that case, on the same audit.file, so the file is never open twice.
+ */
+@Slf4j
+public class AuditLogger {
+    private static final DateTimeFormatter TIMESTAMP_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+    private static final long BLOCKED_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final String ACTIONS_PATTERN = "%d{yyyy-MM-dd}T%d{HH:mm:ss.SSS}Z: %m%n";
+
+    private final AuditConfig config;
+    private final Logger actionsLogger;
+    private final AuditRingBuffer buffer;
+    private final AuditFileWriter fileWriter;
+    private final Thread writer;
+    private final LongAdder written;
+    private final LongAdder dropped;
+    private final LongAdder blocked;
+    private final LongAdder batches;
+    private final AtomicLong unreportedDrops;
+    private volatile boolean running;
+
+    public AuditLogger(AuditConfig config) throws IOException {
+        this.config = config;
+        written = Metrics.counter("audit_events_written_total", "Audit events written to the file");
+        dropped = Metrics.counter("audit_events_dropped_total", "Audit events discarded on a full buffer");
+        blocked = Metrics.counter("audit_events_blocked_total", "Audit events that waited for room in the buffer");
+        batches = Metrics.counter("audit_batches_total", "Batches of audit events written");
+        Metrics.gauge("audit_queue_depth", "Audit events waiting for the writer", this::getQueueDepth);
+        unreportedDrops = new AtomicLong();
+        if (!config.isAsync()) {
+            actionsLogger = actionsLogger(config);
+            buffer = null;
+            fileWriter = null;
+            writer = null;
+            return;
+        }
+
+        actionsLogger = null;
+        buffer = new AuditRingBuffer(config.getBufferSize());
+        fileWriter = new AuditFileWriter(config.getFile(), config.getMaxFileSize(), config.getMaxBackups());
+        running = true;
+        writer = new Thread(this::run, "audit-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public void info(String format, Object... arguments) {
+        if (buffer == null) {
+            actionsLogger.info(format, arguments);
+            return;
+        }
+        AuditEvent event = new AuditEvent(System.currentTimeMillis(), format, arguments);
+        if (buffer.offer(event)) {
+            return;
+        }
+        switch (config.getOverflowPolicy()) {
+            case BLOCK -> {
+                blocked.increment();
+                while (!buffer.offer(event)) {
+                    if (!running) {
+                        dropped.increment();
+                        return;
+                    }
+                    LockSupport.parkNanos(BLOCKED_PARK_NANOS);
+                }
+            }
+            case DROP -> dropped.increment();
+            case COUNT -> {
+                dropped.increment();
+                unreportedDrops.incrementAndGet();
+            }
+        }
+    }
+
+    public long getWritten() {
+        return written.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return times a request thread had to wait for room in the buffer
+     */
+    public long getBlocked() {
+        return blocked.sum();
+    }
+
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    public int getQueueDepth() {
+        return buffer != null ? buffer.size() : 0;
+    }
+
+    /**
+     * Writes the events already buffered, flushes the file and stops the writer.
+     */
+    public void close() {
+        if (writer == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            fileWriter.close();
+        } catch (IOException e) {
+            log.error("Error occurred while closing audit log: {}", e.getMessage());
+        }
+    }
+
+    private static Logger actionsLogger(AuditConfig config) throws IOException {
+        RollingFileAppender appender = new RollingFileAppender(new PatternLayout(ACTIONS_PATTERN),
+                config.getFile().toString());
+        appender.setMaximumFileSize(config.getMaxFileSize());
+        appender.setMaxBackupIndex(config.getMaxBackups());
+        org.apache.log4j.Logger logger = org.apache.log4j.Logger.getLogger("actions");
+        logger.setLevel(Level.INFO);
+        logger.setAdditivity(false);
+        logger.addAppender(appender);
+        return LoggerFactory.getLogger("actions");
+    }
+
+    private void run() {
+        List<AuditEvent> batch = new ArrayList<>(config.getMaxBatchSize());
+        StringBuilder line = new StringBuilder(256);
+        long idleWaitNanos = config.getIdleWait().toNanos();
+        while (true) {
+            //Checked before draining, so events offered before close are still written
+            boolean stopping = !running;
+            int drained = buffer.drainTo(batch, config.getMaxBatchSize());
+            long drops = unreportedDrops.get();
+            if (drained == 0 && drops == 0) {
+                if (stopping) {
+                    return;
+                }
+                LockSupport.parkNanos(idleWaitNanos);
+                continue;
+            }
+            try {
+                for (AuditEvent event : batch) {
+                    line.setLength(0);
+                    TIMESTAMP_FORMAT.formatTo(Instant.ofEpochMilli(event.timestampMillis), line);
+                    line.append(": ").append(MessageFormatter.arrayFormat(event.format, event.arguments).getMessage())
+                            .append(System.lineSeparator());
+                    fileWriter.write(line);
+                }
+                if (drops > 0) {
+                    unreportedDrops.addAndGet(-drops);
+                    line.setLength(0);
+                    TIMESTAMP_FORMAT.formatTo(Instant.now(), line);
+                    line.append(": ").append(drops).append(" audit events dropped, buffer was full")
+                            .append(System.lineSeparator());
+                    fileWriter.write(line);
+                }
+                fileWriter.flush();
+                written.add(drained);
+                batches.increment();
+            } catch (IOException | RuntimeException e) {
+                log.error("Error occurred while writing audit log, {} events lost: {}", drained, e.getMessage());
+                dropped.add(drained);
+            }
+            batch.clear();
+        }
+    }
+}
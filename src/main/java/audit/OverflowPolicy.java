@@ -0,0 +1,20 @@
+package audit;
+
+/**
+ * What a request thread does when the audit buffer is full.
+ */
+public enum OverflowPolicy {
+    /**
+     * Waits until the writer frees a slot, no event is lost
+     */
+    BLOCK,
+    /**
+     * Discards the event, only the dropped counter records it
+     */
+    DROP,
+    /**
+     * Discards the event and writes the number of discarded events to the log once the buffer has room again,
+     * so gaps are visible in the file itself
+     */
+    COUNT
+}
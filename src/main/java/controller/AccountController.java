@@ -1,26 +1,31 @@
 package controller;
 
 import Service.AccountService;
+import audit.AuditLogger;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import dto.BalanceResponse;
+import dto.ExportFormat;
+import dto.HistoryResponse;
 import dto.TransferRequest;
 import dto.TransferResponse;
 import exception.AuthenticationException;
+import exception.IdempotencyKeyInProgressException;
+import exception.IdempotencyKeyMismatchException;
 import exception.InvalidTokenException;
+import exception.ServiceOverloadedException;
 import exception.UserNotFoundException;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.hc.core5.http.HttpStatus;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import rawhttp.core.RawHttpRequest;
-import rawhttp.core.RawHttpResponse;
 import rawhttp.core.body.BodyReader;
+import utils.HttpResponse;
 import utils.HttpUtils;
 import utils.JwtTokenUtils;
+import utils.TokenVerification;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Map;
 
 @Slf4j
 public class AccountController {
@@ -28,25 +33,26 @@ public class AccountController {
     private final ObjectMapper mapper;
     private final HttpUtils httpUtils;
     private final JwtTokenUtils tokenUtils;
-    private final Logger fileLogger;
+    private final AuditLogger auditLogger;
 
-    public AccountController(AccountService accountService) {
+    public AccountController(AccountService accountService, ObjectMapper mapper, JwtTokenUtils tokenUtils,
+                             AuditLogger auditLogger) {
         this.accountService = accountService;
-        mapper = new ObjectMapper();
+        this.mapper = mapper;
+        this.tokenUtils = tokenUtils;
+        this.auditLogger = auditLogger;
         httpUtils = new HttpUtils();
-        tokenUtils = new JwtTokenUtils();
-        fileLogger = LoggerFactory.getLogger("actions");
     }
 
-    public RawHttpResponse handleGetMoney(RawHttpRequest request) {
+    public HttpResponse handleGetMoney(RawHttpRequest request) {
         try {
             String username = getUsername(request);
 
             BalanceResponse balanceResponse = accountService.checkBalance(username);
-            fileLogger.info("User {} requested balance: ${}", username, balanceResponse.getBalance());
+            auditLogger.info("User {} requested balance: ${}", username, balanceResponse.getBalance());
             return httpUtils.buildResponse(
                     HttpStatus.SC_OK,
-                    mapper.writeValueAsString(balanceResponse)
+                    mapper.writeValueAsBytes(balanceResponse)
             );
         } catch (AuthenticationException | InvalidTokenException e) {
             log.debug(e.getMessage());
@@ -63,7 +69,7 @@ public class AccountController {
         }
     }
 
-    public RawHttpResponse handleSendMoney(RawHttpRequest request) {
+    public HttpResponse handleSendMoney(RawHttpRequest request) {
         try {
             String username = getUsername(request);
 
@@ -71,15 +77,18 @@ public class AccountController {
                     () -> new IllegalArgumentException("Request body is absent")
             );
             TransferRequest transferRequest = mapper.readValue(
-                    bodyReader.asRawString(StandardCharsets.UTF_8),
+                    bodyReader.asRawStream(),
                     TransferRequest.class
             );
 
-            TransferResponse registrationResponse = accountService.transferToUsername(username, transferRequest);
-            fileLogger.info("User {} has sent ${} to user {}", username, transferRequest.getAmount(), transferRequest.getReceiverUsername());
+            List<String> idempotencyKeys = request.getHeaders().get("Idempotency-Key");
+            String idempotencyKey = idempotencyKeys.isEmpty() ? null : idempotencyKeys.get(0);
+
+            TransferResponse registrationResponse = accountService.transferToUsername(username, transferRequest, idempotencyKey);
+            auditLogger.info("User {} has sent ${} to user {}", username, transferRequest.getAmount(), transferRequest.getReceiverUsername());
             return httpUtils.buildResponse(
                     HttpStatus.SC_OK,
-                    mapper.writeValueAsString(registrationResponse)
+                    mapper.writeValueAsBytes(registrationResponse)
             );
         } catch (AuthenticationException | InvalidTokenException e) {
             log.debug(e.getMessage());
@@ -87,6 +96,15 @@ public class AccountController {
         } catch (UserNotFoundException | IllegalArgumentException e) {
             log.debug(e.getMessage());
             return httpUtils.buildExceptionResponse(HttpStatus.SC_BAD_REQUEST, e);
+        } catch (IdempotencyKeyInProgressException e) {
+            log.debug(e.getMessage());
+            return httpUtils.buildExceptionResponse(HttpStatus.SC_CONFLICT, e);
+        } catch (IdempotencyKeyMismatchException e) {
+            log.debug(e.getMessage());
+            return httpUtils.buildExceptionResponse(HttpStatus.SC_UNPROCESSABLE_ENTITY, e);
+        } catch (ServiceOverloadedException e) {
+            log.debug(e.getMessage());
+            return httpUtils.buildExceptionResponse(HttpStatus.SC_SERVICE_UNAVAILABLE, e);
         } catch (IOException e) {
             log.error(e.getMessage());
             return httpUtils.buildExceptionResponse(HttpStatus.SC_UNPROCESSABLE_ENTITY, e);
@@ -96,6 +114,59 @@ public class AccountController {
         }
     }
 
+    public HttpResponse handleGetHistory(RawHttpRequest request) {
+        try {
+            String username = getUsername(request);
+
+            Map<String, String> parameters = httpUtils.getQueryParameters(request);
+            HistoryResponse historyResponse = accountService.getHistory(username, parameters.get("cursor"), parameters.get("limit"));
+            auditLogger.info("User {} requested transaction history", username);
+            return httpUtils.buildResponse(
+                    HttpStatus.SC_OK,
+                    mapper.writeValueAsBytes(historyResponse)
+            );
+        } catch (AuthenticationException | InvalidTokenException e) {
+            log.debug(e.getMessage());
+            return httpUtils.buildExceptionResponse(HttpStatus.SC_UNAUTHORIZED, e);
+        } catch (UserNotFoundException | IllegalArgumentException e) {
+            log.debug(e.getMessage());
+            return httpUtils.buildExceptionResponse(HttpStatus.SC_BAD_REQUEST, e);
+        } catch (IOException e) {
+            log.error(e.getMessage());
+            return httpUtils.buildExceptionResponse(HttpStatus.SC_UNPROCESSABLE_ENTITY, e);
+        } catch (Exception e) {
+            log.error(e.getMessage());
+            return httpUtils.buildExceptionResponse(HttpStatus.SC_SERVER_ERROR, e);
+        }
+    }
+
+    /**
+     * Authorization and parameters are checked before the response starts, the rows are then streamed to the client.
+     */
+    public HttpResponse handleExportHistory(RawHttpRequest request) {
+        try {
+            String username = getUsername(request);
+
+            ExportFormat format = ExportFormat.of(httpUtils.getQueryParameters(request).get("format"));
+            auditLogger.info("User {} requested transaction history export as {}", username, format);
+            return HttpResponse.streaming(
+                    HttpStatus.SC_OK,
+                    format.getContentType(),
+                    httpUtils.acceptsGzip(request),
+                    accountService.exportHistory(username, format)
+            );
+        } catch (AuthenticationException | InvalidTokenException e) {
+            log.debug(e.getMessage());
+            return httpUtils.buildExceptionResponse(HttpStatus.SC_UNAUTHORIZED, e);
+        } catch (UserNotFoundException | IllegalArgumentException e) {
+            log.debug(e.getMessage());
+            return httpUtils.buildExceptionResponse(HttpStatus.SC_BAD_REQUEST, e);
+        } catch (Exception e) {
+            log.error(e.getMessage());
+            return httpUtils.buildExceptionResponse(HttpStatus.SC_SERVER_ERROR, e);
+        }
+    }
+
     private String getUsername(RawHttpRequest request) {
         List<String> headersAuth = request.getHeaders().get("Authorization");
         if (headersAuth.isEmpty())
@@ -106,10 +177,11 @@ public class AccountController {
             throw new AuthenticationException("Token not found");
         }
 
-        if (!tokenUtils.validateAccessToken(headerAuth.substring(7))) {
+        TokenVerification verification = tokenUtils.verifyAccessToken(headerAuth.substring(7));
+        if (!verification.isValid()) {
             throw new InvalidTokenException("Invalid token");
         }
 
-        return tokenUtils.getUsername(headerAuth.substring(7));
+        return verification.getSubject();
     }
 }
@@ -1,57 +1,59 @@
 package controller;
 
 import Service.AuthenticationService;
+import audit.AuditLogger;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import dto.*;
 import exception.AuthenticationException;
 import exception.InvalidTokenException;
+import exception.ServiceOverloadedException;
 import exception.UserNotFoundException;
 import exception.UsernameAlreadyExistsException;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.hc.core5.http.HttpStatus;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import rawhttp.core.RawHttpRequest;
-import rawhttp.core.RawHttpResponse;
 import rawhttp.core.body.BodyReader;
+import utils.HttpResponse;
 import utils.HttpUtils;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 
 @Slf4j
 public class AuthenticationController {
     private final AuthenticationService authService;
     private final ObjectMapper mapper;
     private final HttpUtils httpUtils;
-    private final Logger fileLogger;
+    private final AuditLogger auditLogger;
 
-    public AuthenticationController(AuthenticationService authService) {
+    public AuthenticationController(AuthenticationService authService, ObjectMapper mapper, AuditLogger auditLogger) {
         this.authService = authService;
-        mapper = new ObjectMapper();
+        this.mapper = mapper;
+        this.auditLogger = auditLogger;
         httpUtils = new HttpUtils();
-        fileLogger = LoggerFactory.getLogger("actions");
     }
 
-    public RawHttpResponse handleSingUp(RawHttpRequest request) {
+    public HttpResponse handleSingUp(RawHttpRequest request) {
         try {
             BodyReader bodyReader = request.getBody().orElseThrow(
                     () -> new IllegalArgumentException("Request body is absent")
             );
             RegistrationRequest registrationRequest = mapper.readValue(
-                    bodyReader.asRawString(StandardCharsets.UTF_8),
+                    bodyReader.asRawStream(),
                     RegistrationRequest.class
             );
 
             RegistrationResponse registrationResponse = authService.signUp(registrationRequest);
-            fileLogger.info("User {} has signed up", registrationRequest.getLogin());
+            auditLogger.info("User {} has signed up", registrationRequest.getLogin());
             return httpUtils.buildResponse(
                     HttpStatus.SC_OK,
-                    mapper.writeValueAsString(registrationResponse)
+                    mapper.writeValueAsBytes(registrationResponse)
             );
         } catch (UsernameAlreadyExistsException | IllegalArgumentException e) {
             log.debug(e.getMessage());
             return httpUtils.buildExceptionResponse(HttpStatus.SC_BAD_REQUEST, e);
+        } catch (ServiceOverloadedException e) {
+            log.debug(e.getMessage());
+            return httpUtils.buildExceptionResponse(HttpStatus.SC_SERVICE_UNAVAILABLE, e);
         } catch (IOException e) {
             log.error(e.getMessage());
             return httpUtils.buildExceptionResponse(HttpStatus.SC_UNPROCESSABLE_ENTITY, e);
@@ -61,21 +63,21 @@ public class AuthenticationController {
         }
     }
 
-    public RawHttpResponse handleSingIn(RawHttpRequest request) {
+    public HttpResponse handleSingIn(RawHttpRequest request) {
         try {
             BodyReader bodyReader = request.getBody().orElseThrow(
                     () -> new IllegalArgumentException("Request body is absent")
             );
             AuthenticationRequest authenticationRequest = mapper.readValue(
-                    bodyReader.asRawString(StandardCharsets.UTF_8),
+                    bodyReader.asRawStream(),
                     AuthenticationRequest.class
             );
 
             AuthenticationResponse authenticationResponse = authService.signIn(authenticationRequest);
-            fileLogger.info("User {} has signed in", authenticationRequest.getLogin());
+            auditLogger.info("User {} has signed in", authenticationRequest.getLogin());
             return httpUtils.buildResponse(
                     HttpStatus.SC_OK,
-                    mapper.writeValueAsString(authenticationResponse)
+                    mapper.writeValueAsBytes(authenticationResponse)
             );
         } catch (AuthenticationException | UserNotFoundException e) {
             log.debug(e.getMessage());
@@ -83,6 +85,9 @@ public class AuthenticationController {
         } catch (IllegalArgumentException e) {
             log.debug(e.getMessage());
             return httpUtils.buildExceptionResponse(HttpStatus.SC_BAD_REQUEST, e);
+        } catch (ServiceOverloadedException e) {
+            log.debug(e.getMessage());
+            return httpUtils.buildExceptionResponse(HttpStatus.SC_SERVICE_UNAVAILABLE, e);
         } catch (IOException e) {
             log.error(e.getMessage());
             return httpUtils.buildExceptionResponse(HttpStatus.SC_UNPROCESSABLE_ENTITY, e);
@@ -92,20 +97,20 @@ public class AuthenticationController {
         }
     }
 
-    public RawHttpResponse handleToken(RawHttpRequest request) {
+    public HttpResponse handleToken(RawHttpRequest request) {
         try {
             BodyReader bodyReader = request.getBody().orElseThrow(
                     () -> new IllegalArgumentException("Request body is absent")
             );
             RefreshTokenRequest refreshTokenRequest = mapper.readValue(
-                    bodyReader.asRawString(StandardCharsets.UTF_8),
+                    bodyReader.asRawStream(),
                     RefreshTokenRequest.class
             );
 
             AuthenticationResponse authenticationResponse = authService.createAccessToken(refreshTokenRequest.getRefreshToken());
             return httpUtils.buildResponse(
                     HttpStatus.SC_OK,
-                    mapper.writeValueAsString(authenticationResponse)
+                    mapper.writeValueAsBytes(authenticationResponse)
             );
         } catch (InvalidTokenException e) {
             log.debug(e.getMessage());
@@ -122,20 +127,20 @@ public class AuthenticationController {
         }
     }
 
-    public RawHttpResponse handleRefresh(RawHttpRequest request) {
+    public HttpResponse handleRefresh(RawHttpRequest request) {
         try {
             BodyReader bodyReader = request.getBody().orElseThrow(
                     () -> new IllegalArgumentException("Request body is absent")
             );
             RefreshTokenRequest refreshTokenRequest = mapper.readValue(
-                    bodyReader.asRawString(StandardCharsets.UTF_8),
+                    bodyReader.asRawStream(),
                     RefreshTokenRequest.class
             );
 
             AuthenticationResponse authenticationResponse = authService.createRefreshToken(refreshTokenRequest.getRefreshToken());
             return httpUtils.buildResponse(
                     HttpStatus.SC_OK,
-                    mapper.writeValueAsString(authenticationResponse)
+                    mapper.writeValueAsBytes(authenticationResponse)
             );
         } catch (InvalidTokenException e) {
             log.debug(e.getMessage());
@@ -0,0 +1,15 @@
+package controller;
+
+import metrics.Metrics;
+import org.apache.hc.core5.http.HttpStatus;
+import utils.HttpResponse;
+
+import java.nio.charset.StandardCharsets;
+
+public class MetricsController {
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    public HttpResponse handleGetMetrics() {
+        return new HttpResponse(HttpStatus.SC_OK, Metrics.scrape().getBytes(StandardCharsets.UTF_8), CONTENT_TYPE);
+    }
+}
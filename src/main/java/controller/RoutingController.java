@@ -1,75 +1,117 @@
 package controller;
 
+import exception.RequestRejectedException;
+import limit.ConcurrencyLimiter;
+import limit.RateLimiter;
+import limit.TrustedProxies;
 import lombok.extern.slf4j.Slf4j;
+import metrics.RequestMetrics;
 import org.apache.hc.core5.http.HttpStatus;
-import rawhttp.core.EagerHttpRequest;
 import rawhttp.core.RawHttp;
-import rawhttp.core.RawHttpResponse;
+import rawhttp.core.RawHttpRequest;
+import server.HttpRequestReader;
+import server.HttpResponseWriter;
+import server.ServerConfig;
+import utils.HttpResponse;
 import utils.HttpUtils;
+import utils.JwtTokenUtils;
+import utils.TokenVerification;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.List;
 
 @Slf4j
 public class RoutingController {
+    private final ServerConfig config;
     private final AuthenticationController authenticationController;
     private final AccountController accountController;
+    private final MetricsController metricsController;
+    private final RateLimiter rateLimiter;
+    private final ConcurrencyLimiter concurrencyLimiter;
+    private final TrustedProxies trustedProxies;
     private final HttpUtils httpUtils;
+    private final JwtTokenUtils tokenUtils;
+    private final RawHttp http;
+    private final RequestMetrics requestMetrics;
+    private final HttpResponse methodNotAllowedResponse;
+    private final HttpResponse urlNotFoundResponse;
+    private final HttpResponse tooManyRequestsResponse;
+    private final HttpResponse overloadedResponse;
+    private final HttpResponse internalErrorResponse;
 
     public RoutingController(
+            ServerConfig config,
             AuthenticationController authenticationController,
-            AccountController accountController
+            AccountController accountController,
+            MetricsController metricsController,
+            JwtTokenUtils tokenUtils,
+            RateLimiter rateLimiter,
+            ConcurrencyLimiter concurrencyLimiter,
+            TrustedProxies trustedProxies
     ) {
+        this.config = config;
         this.authenticationController = authenticationController;
         this.accountController = accountController;
+        this.metricsController = metricsController;
+        this.tokenUtils = tokenUtils;
+        this.rateLimiter = rateLimiter;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.trustedProxies = trustedProxies;
         httpUtils = new HttpUtils();
+        http = new RawHttp();
+        requestMetrics = new RequestMetrics("/signin", "/signup", "/token", "/refresh", "/money", "/money/history",
+                "/money/history/export", "/metrics");
+        methodNotAllowedResponse = httpUtils.buildResponse(
+                HttpStatus.SC_METHOD_NOT_ALLOWED,
+                "{ \"message\":\"Method not allowed\"}"
+        );
+        urlNotFoundResponse = httpUtils.buildResponse(
+                HttpStatus.SC_NOT_FOUND,
+                "{ \"message\":\"URL not found\"}"
+        );
+        tooManyRequestsResponse = httpUtils.buildResponse(
+                HttpStatus.SC_TOO_MANY_REQUESTS,
+                "{ \"message\":\"Too many requests, try again later\"}"
+        );
+        overloadedResponse = httpUtils.buildResponse(
+                HttpStatus.SC_SERVICE_UNAVAILABLE,
+                "{ \"message\":\"Server is overloaded\"}"
+        );
+        internalErrorResponse = httpUtils.buildResponse(
+                HttpStatus.SC_INTERNAL_SERVER_ERROR,
+                "{ \"message\":\"Internal server error\"}"
+        );
     }
 
     public void handleRequest(Socket socket) {
         try {
-            if (socket.getInputStream().available() != 0) {
-                RawHttp http = new RawHttp();
-                EagerHttpRequest request = http.parseRequest(socket.getInputStream()).eagerly();
+            HttpRequestReader reader = new HttpRequestReader(config, socket, http);
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            HttpResponseWriter writer = HttpResponseWriter.forStream();
 
-                RawHttpResponse response = switch (request.getUri().getPath()) {
-                    case "/signin" -> {
-                        if ("POST".equals(request.getMethod())) {
-                            yield authenticationController.handleSingIn(request);
-                        } else {
-                            yield methodNotAllowed();
-                        }
-                    }
-                    case "/signup" -> {
-                        if ("POST".equals(request.getMethod())) {
-                            yield authenticationController.handleSingUp(request);
-                        } else {
-                            yield methodNotAllowed();
-                        }
-                    }
-                    case "/token" -> {
-                        if ("POST".equals(request.getMethod())) {
-                            yield authenticationController.handleToken(request);
-                        } else {
-                            yield methodNotAllowed();
-                        }
-                    }
-                    case "/refresh" -> {
-                        if ("POST".equals(request.getMethod())) {
-                            yield authenticationController.handleRefresh(request);
-                        } else {
-                            yield methodNotAllowed();
-                        }
-                    }
-                    case "/money" -> switch (request.getMethod()) {
-                        case "GET" -> accountController.handleGetMoney(request);
-                        case "POST" -> accountController.handleSendMoney(request);
-                        default -> methodNotAllowed();
-                    };
-                    default -> urlNotFound();
-                };
+            //Requests are served one by one, so pipelined requests are answered in order
+            boolean keepAlive = true;
+            for (int served = 1; keepAlive && reader.awaitRequest(); served++) {
+                HttpResponse response;
+                try {
+                    RawHttpRequest request = reader.readRequest();
+                    keepAlive = served < config.getMaxRequestsPerConnection() && httpUtils.isKeepAlive(request);
+                    response = route(request);
+                } catch (RequestRejectedException e) {
+                    log.debug(e.getMessage());
+                    keepAlive = false;
+                    response = httpUtils.buildExceptionResponse(e.getHttpStatus(), e);
+                }
 
-                response.writeTo(socket.getOutputStream());
+                writer.writeTo(out, response, keepAlive);
+                out.flush();
             }
+        } catch (SocketTimeoutException e) {
+            log.debug("Closing idle connection");
         } catch (IOException e) {
             log.error(e.getMessage());
         } finally {
@@ -81,17 +123,130 @@ public class RoutingController {
         }
     }
 
-    private RawHttpResponse methodNotAllowed() {
-        return httpUtils.buildResponse(
-                HttpStatus.SC_METHOD_NOT_ALLOWED,
-                "{ \"message\":\"Method not allowed\"}"
-        );
+    /**
+     * Requests over the client's rate limit are refused with 429, requests over the global concurrency limit with 503,
+     * both before any work is done. A streamed response keeps its place in the concurrency limit until its body
+     * is written or fails, so exports waiting on slow clients count against the limit. The time of writing the body
+     * is not part of the request latency.
+     */
+    public HttpResponse route(RawHttpRequest request) {
+        long start = System.nanoTime();
+        String path = request.getUri().getPath();
+        HttpResponse response;
+        try {
+            response = limitAndDispatch(request, path);
+        } catch (RuntimeException e) {
+            //Controllers answer the errors they expect, anything else is a failure of the server or the database
+            log.error("Error occurred while handling {} {}", request.getMethod(), path, e);
+            response = internalErrorResponse;
+        }
+        requestMetrics.record(path, response.getStatus(), start);
+        return response;
     }
 
-    private RawHttpResponse urlNotFound() {
-        return httpUtils.buildResponse(
-                HttpStatus.SC_NOT_FOUND,
-                "{ \"message\":\"URL not found\"}"
-        );
+    private HttpResponse limitAndDispatch(RawHttpRequest request, String path) {
+        if (rateLimiter.isLimited(path) && !rateLimiter.tryAcquire(path, clientOf(request))) {
+            return tooManyRequestsResponse;
+        }
+        if (!concurrencyLimiter.tryAcquire()) {
+            return overloadedResponse;
+        }
+        boolean streaming = false;
+        try {
+            HttpResponse response = dispatch(request, path);
+            if (response.isStreaming()) {
+                //Released by the writer of the body
+                streaming = true;
+                return response.onComplete(concurrencyLimiter::release);
+            }
+            return response;
+        } finally {
+            if (!streaming) {
+                concurrencyLimiter.release();
+            }
+        }
+    }
+
+    private HttpResponse dispatch(RawHttpRequest request, String path) {
+        return switch (path) {
+            case "/signin" -> {
+                if ("POST".equals(request.getMethod())) {
+                    yield authenticationController.handleSingIn(request);
+                } else {
+                    yield methodNotAllowed();
+                }
+            }
+            case "/signup" -> {
+                if ("POST".equals(request.getMethod())) {
+                    yield authenticationController.handleSingUp(request);
+                } else {
+                    yield methodNotAllowed();
+                }
+            }
+            case "/token" -> {
+                if ("POST".equals(request.getMethod())) {
+                    yield authenticationController.handleToken(request);
+                } else {
+                    yield methodNotAllowed();
+                }
+            }
+            case "/refresh" -> {
+                if ("POST".equals(request.getMethod())) {
+                    yield authenticationController.handleRefresh(request);
+                } else {
+                    yield methodNotAllowed();
+                }
+            }
+            case "/money" -> switch (request.getMethod()) {
+                case "GET" -> accountController.handleGetMoney(request);
+                case "POST" -> accountController.handleSendMoney(request);
+                default -> methodNotAllowed();
+            };
+            case "/money/history" -> {
+                if ("GET".equals(request.getMethod())) {
+                    yield accountController.handleGetHistory(request);
+                } else {
+                    yield methodNotAllowed();
+                }
+            }
+            case "/money/history/export" -> {
+                if ("GET".equals(request.getMethod())) {
+                    yield accountController.handleExportHistory(request);
+                } else {
+                    yield methodNotAllowed();
+                }
+            }
+            case "/metrics" -> {
+                if ("GET".equals(request.getMethod())) {
+                    yield metricsController.handleGetMetrics();
+                } else {
+                    yield methodNotAllowed();
+                }
+            }
+            default -> urlNotFound();
+        };
+    }
+
+    /**
+     * Client a rate limit applies to: the user of a valid access token, otherwise the client address,
+     * taken from forwarding headers only on connections from trusted proxies.
+     */
+    private String clientOf(RawHttpRequest request) {
+        List<String> headersAuth = request.getHeaders().get("Authorization");
+        if (!headersAuth.isEmpty() && headersAuth.get(0).startsWith("Bearer ")) {
+            TokenVerification verification = tokenUtils.verifyAccessToken(headersAuth.get(0).substring(7));
+            if (verification.isValid()) {
+                return "user " + verification.getSubject();
+            }
+        }
+        return trustedProxies.clientAddress(request);
+    }
+
+    private HttpResponse methodNotAllowed() {
+        return methodNotAllowedResponse;
+    }
+
+    private HttpResponse urlNotFound() {
+        return urlNotFoundResponse;
     }
 }
\ No newline at end of file
@@ -7,4 +7,6 @@ import java.util.Optional;
 public interface AccountDao {
     Optional<Account> getByUsername(String username);
     void transferByAccountId(Long senderAccountId, Long receiverAccountId, Long amount);
+    Long transferByUsername(String senderUsername, String receiverUsername, Long amount, String idempotencyKey);
+    void enableStriping(String username, int stripes);
 }
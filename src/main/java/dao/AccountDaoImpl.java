@@ -1,86 +1,499 @@
 package dao;
 
 import data.ConnectionPool;
+import exception.InsufficientBalanceException;
 import exception.RuntimeSqlException;
+import exception.UserNotFoundException;
 import lombok.extern.slf4j.Slf4j;
+import metrics.LatencyHistogram;
+import metrics.Metrics;
 import model.Account;
+import model.AccountIdentity;
+import model.IdempotentTransfer;
+import utils.PropertiesLoader;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
 
 @Slf4j
 public class AccountDaoImpl implements AccountDao {
+    private static final String STATEMENT_MODE = "statement";
+    private static final String ORDERED_MODE = "ordered";
+
     private final ConnectionPool connectionPool;
+    private final TransactionRunner transactionRunner;
+    private final AccountIdentityCache identityCache;
+    private final IdempotencyStore idempotencyStore;
+    private final String transferMode;
+    private final LatencyHistogram balanceLatency;
+    private final LatencyHistogram transferLatency;
 
-    public AccountDaoImpl(ConnectionPool connectionPool) {
+    public AccountDaoImpl(ConnectionPool connectionPool, TransactionRunner transactionRunner,
+                          AccountIdentityCache identityCache, IdempotencyStore idempotencyStore) {
         this.connectionPool = connectionPool;
+        this.transactionRunner = transactionRunner;
+        this.identityCache = identityCache;
+        this.idempotencyStore = idempotencyStore;
+        balanceLatency = Metrics.operationTimer("account_balance");
+        transferLatency = Metrics.operationTimer("transfer");
+
+        final Properties dbProperties = PropertiesLoader.load("/db.properties");
+        transferMode = dbProperties.getProperty("account.transfer.mode", ORDERED_MODE);
+        if (!STATEMENT_MODE.equals(transferMode) && !ORDERED_MODE.equals(transferMode)) {
+            throw new IllegalArgumentException("Unknown transfer mode: " + transferMode);
+        }
+
+        int stripes = Integer.parseInt(dbProperties.getProperty("account.stripes.count", "8"));
+        for (String username : dbProperties.getProperty("account.stripes.hot-accounts", "").split(",")) {
+            if (!username.isBlank()) {
+                try {
+                    enableStriping(username.trim(), stripes);
+                } catch (UserNotFoundException e) {
+                    log.warn("Striping is not enabled for hot account: {}", e.getMessage());
+                }
+            }
+        }
     }
 
+    /**
+     * Balance of a striped account is the sum of the account row and all of its stripes.
+     */
     @Override
     public Optional<Account> getByUsername(String username) {
-        try (Connection connection = connectionPool.getConnection()) {
-            String query = "SELECT a.id, a.user_id, a.balance FROM accounts a INNER JOIN users u on a.user_id = u.id " +
-                    "WHERE u.username = ?";
-            PreparedStatement statement = connection.prepareStatement(query);
-            statement.setString(1, username);
-            statement.executeQuery();
-            ResultSet resultSet = statement.getResultSet();
-            if (resultSet != null && resultSet.next()) {
-                return Optional.of(new Account(
-                        resultSet.getLong("id"),
-                        resultSet.getLong("user_id"),
-                        resultSet.getLong("balance")
-                ));
-            } else {
+        long start = System.nanoTime();
+        try {
+            Optional<AccountIdentity> identity = identityCache.get(username);
+            if (identity.isEmpty()) {
                 return Optional.empty();
             }
-        } catch (SQLException e) {
-            log.error("Error occurred while retrieving user from database: {}", e.getMessage());
-            throw new RuntimeSqlException("Error occurred while retrieving account from database: " + e.getMessage());
+            String query = "SELECT a.balance + " +
+                    "COALESCE((SELECT SUM(s.balance) FROM account_balance_stripes s WHERE s.account_id = a.id), 0) AS balance " +
+                    "FROM accounts a WHERE a.id = ?";
+            try (Connection connection = connectionPool.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(query)) {
+                statement.setLong(1, identity.get().getAccountId());
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if (resultSet.next()) {
+                        return Optional.of(new Account(
+                                identity.get().getAccountId(),
+                                identity.get().getUserId(),
+                                resultSet.getLong("balance")
+                        ));
+                    } else {
+                        return Optional.empty();
+                    }
+                }
+            } catch (SQLException e) {
+                log.error("Error occurred while retrieving user from database: {}", e.getMessage());
+                throw new RuntimeSqlException("Error occurred while retrieving account from database: " + e.getMessage());
+            }
+        } finally {
+            balanceLatency.recordSince(start);
         }
     }
 
     @Override
     public void transferByAccountId(Long senderAccountId, Long receiverAccountId, Long amount) {
-        try (Connection connection = connectionPool.getConnection()) {
-            connection.setAutoCommit(false);
-            connection.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
-
-            String senderQuery = "UPDATE accounts SET balance = balance - ? WHERE id = ?";
-            PreparedStatement senderStatement = connection.prepareStatement(senderQuery);
-            senderStatement.setLong(1, amount);
-            senderStatement.setLong(2, senderAccountId);
-            int rowsUpdated = senderStatement.executeUpdate();
-            if (rowsUpdated == 0) {
-                throw new RuntimeSqlException("Error occurred while updating account id " + senderAccountId + " balance");
-            }
-
-            String receiverQuery = "UPDATE accounts SET balance = balance + ? WHERE id = ?";
-            PreparedStatement receiverStatement = connection.prepareStatement(receiverQuery);
-            receiverStatement.setLong(1, amount);
-            receiverStatement.setLong(2, receiverAccountId);
-            rowsUpdated = receiverStatement.executeUpdate();
-            if (rowsUpdated == 0) {
-                throw new RuntimeSqlException("Error occurred while updating account id " + receiverAccountId + " balance");
-            }
-
-            String transactionQuery = "INSERT INTO transactions (sender_account_id, receiver_account_id, amount) VALUES (?, ?, ?)";
-            PreparedStatement transactionStatement = connection.prepareStatement(transactionQuery);
-            transactionStatement.setLong(1, senderAccountId);
-            transactionStatement.setLong(2, receiverAccountId);
-            transactionStatement.setLong(3, amount);
-            rowsUpdated = transactionStatement.executeUpdate();
-            if (rowsUpdated == 0) {
-                throw new RuntimeSqlException("Error occurred while logging transaction in the database");
-            }
-
-            connection.commit();
+        long start = System.nanoTime();
+        try {
+            if (ORDERED_MODE.equals(transferMode)) {
+                transactionRunner.run(Connection.TRANSACTION_READ_COMMITTED, connection -> {
+                    String query = "SELECT id, stripe_count FROM accounts WHERE id IN (?, ?)";
+                    ResolvedAccount sender = null;
+                    ResolvedAccount receiver = null;
+                    try (PreparedStatement statement = connection.prepareStatement(query)) {
+                        statement.setLong(1, senderAccountId);
+                        statement.setLong(2, receiverAccountId);
+                        try (ResultSet resultSet = statement.executeQuery()) {
+                            while (resultSet.next()) {
+                                ResolvedAccount account = new ResolvedAccount(resultSet.getLong("id"), resultSet.getInt("stripe_count"));
+                                if (account.id == senderAccountId) {
+                                    sender = account;
+                                }
+                                if (account.id == receiverAccountId) {
+                                    receiver = account;
+                                }
+                            }
+                        }
+                    }
+                    if (sender == null) {
+                        throw new UserNotFoundException("Account id " + senderAccountId + " not found");
+                    }
+                    if (receiver == null) {
+                        throw new UserNotFoundException("Account id " + receiverAccountId + " not found");
+                    }
+                    return transferLocked(connection, sender.id, receiver.id, receiver.stripeCount, amount,
+                            null, "Account id " + senderAccountId);
+                });
+                return;
+            }
+
+            transactionRunner.run(Connection.TRANSACTION_SERIALIZABLE, connection -> {
+                String senderQuery = "UPDATE accounts SET balance = balance - ? WHERE id = ?";
+                try (PreparedStatement senderStatement = connection.prepareStatement(senderQuery)) {
+                    senderStatement.setLong(1, amount);
+                    senderStatement.setLong(2, senderAccountId);
+                    if (senderStatement.executeUpdate() == 0) {
+                        throw new RuntimeSqlException("Error occurred while updating account id " + senderAccountId + " balance");
+                    }
+                }
+
+                String receiverQuery = "UPDATE accounts SET balance = balance + ? WHERE id = ?";
+                try (PreparedStatement receiverStatement = connection.prepareStatement(receiverQuery)) {
+                    receiverStatement.setLong(1, amount);
+                    receiverStatement.setLong(2, receiverAccountId);
+                    if (receiverStatement.executeUpdate() == 0) {
+                        throw new RuntimeSqlException("Error occurred while updating account id " + receiverAccountId + " balance");
+                    }
+                }
+
+                String transactionQuery = "INSERT INTO transactions (sender_account_id, receiver_account_id, amount) VALUES (?, ?, ?)";
+                try (PreparedStatement transactionStatement = connection.prepareStatement(transactionQuery)) {
+                    transactionStatement.setLong(1, senderAccountId);
+                    transactionStatement.setLong(2, receiverAccountId);
+                    transactionStatement.setLong(3, amount);
+                    if (transactionStatement.executeUpdate() == 0) {
+                        throw new RuntimeSqlException("Error occurred while logging transaction in the database");
+                    }
+                }
+                return null;
+            });
+        } finally {
+            transferLatency.recordSince(start);
+        }
+    }
+
+    /**
+     * Account ids come from the identity cache. Debits the sender only if the balance is sufficient, credits the receiver
+     * (or one of its stripes) and records the transaction in a single statement, so the whole transfer is one round trip.
+     * Debit condition is re-evaluated after waiting for a concurrent transfer's row lock,
+     * so the balance can not go below zero. A striped sender short on its account row falls back to the ordered path,
+     * which sweeps the stripes first.
+     * An idempotency key is inserted by the transfer itself. A retry finds the key cached, or takes the sender row lock
+     * after the original transfer and fails on the taken key; it is then rolled back and the stored balance is returned.
+     * @return sender balance after the transfer
+     */
+    @Override
+    public Long transferByUsername(String senderUsername, String receiverUsername, Long amount, String idempotencyKey) {
+        AccountIdentity sender = identityCache.get(senderUsername).orElseThrow(
+                () -> new UserNotFoundException("User " + senderUsername + " not found or does not have an account"));
+        AccountIdentity receiver = identityCache.get(receiverUsername).orElseThrow(
+                () -> new UserNotFoundException("User " + receiverUsername + " not found or does not have an account"));
+        if (idempotencyKey == null) {
+            return transfer(sender, receiver, amount, null, "User " + senderUsername);
+        }
+
+        long userId = sender.getUserId();
+        long receiverId = receiver.getAccountId();
+        Optional<Long> cached = idempotencyStore.getCached(userId, idempotencyKey, receiverId, amount);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+        try {
+            Long balance = transfer(sender, receiver, amount, new IdempotencyKey(userId, idempotencyKey), "User " + senderUsername);
+            idempotencyStore.put(userId, idempotencyKey, new IdempotentTransfer(receiverId, amount, balance));
+            return balance;
+        } catch (IdempotencyKeyTakenException e) {
+            return idempotencyStore.getStored(userId, idempotencyKey, receiverId, amount).orElseThrow(
+                    () -> new RuntimeSqlException("Idempotency key " + idempotencyKey + " is taken but not stored"));
+        } catch (InsufficientBalanceException e) {
+            //The original transfer may have spent the balance its retry finds short
+            return idempotencyStore.getStored(userId, idempotencyKey, receiverId, amount).orElseThrow(() -> e);
+        }
+    }
+
+    /**
+     * Splits the balance of an account over the given number of stripe rows, so concurrent credits
+     * to it update different rows. Existing balance stays in the account row, stripes start empty.
+     * Stripe count is never reduced.
+     */
+    @Override
+    public void enableStriping(String username, int stripes) {
+        AccountIdentity identity = transactionRunner.run(Connection.TRANSACTION_READ_COMMITTED, connection -> {
+            String lockQuery = "SELECT a.id, a.user_id, a.stripe_count FROM accounts a INNER JOIN users u ON a.user_id = u.id " +
+                    "WHERE u.username = ? FOR UPDATE OF a";
+            long accountId;
+            long userId;
+            int currentStripes;
+            try (PreparedStatement lockStatement = connection.prepareStatement(lockQuery)) {
+                lockStatement.setString(1, username);
+                try (ResultSet resultSet = lockStatement.executeQuery()) {
+                    if (!resultSet.next()) {
+                        throw new UserNotFoundException("User " + username + " not found or does not have an account");
+                    }
+                    accountId = resultSet.getLong("id");
+                    userId = resultSet.getLong("user_id");
+                    currentStripes = resultSet.getInt("stripe_count");
+                }
+            }
+            if (stripes <= currentStripes) {
+                return null;
+            }
+
+            String stripesQuery = "INSERT INTO account_balance_stripes (account_id, stripe, balance) " +
+                    "SELECT ?, stripe, 0 FROM generate_series(?, ?) stripe ON CONFLICT DO NOTHING";
+            try (PreparedStatement stripesStatement = connection.prepareStatement(stripesQuery)) {
+                stripesStatement.setLong(1, accountId);
+                stripesStatement.setInt(2, currentStripes);
+                stripesStatement.setInt(3, stripes - 1);
+                stripesStatement.executeUpdate();
+            }
+
+            String accountQuery = "UPDATE accounts SET stripe_count = ? WHERE id = ?";
+            try (PreparedStatement accountStatement = connection.prepareStatement(accountQuery)) {
+                accountStatement.setInt(1, stripes);
+                accountStatement.setLong(2, accountId);
+                accountStatement.executeUpdate();
+            }
+            log.info("Balance of user {} is split over {} stripes", username, stripes);
+            return new AccountIdentity(userId, accountId, stripes);
+        });
+        if (identity != null) {
+            identityCache.put(username, identity);
+        }
+    }
+
+    /**
+     * Moves all stripes of a locked account back to its account row. Stripes are locked after account rows,
+     * the same order every transfer takes them in.
+     * @return account row balance after the sweep
+     */
+    static long sweepStripes(Connection connection, long accountId) throws SQLException {
+        String query = "WITH locked AS (" +
+                "    SELECT stripe, balance FROM account_balance_stripes WHERE account_id = ? ORDER BY stripe FOR UPDATE" +
+                "), zeroed AS (" +
+                "    UPDATE account_balance_stripes s SET balance = 0 FROM locked " +
+                "    WHERE s.account_id = ? AND s.stripe = locked.stripe AND locked.balance <> 0" +
+                ") " +
+                "UPDATE accounts SET balance = balance + (SELECT COALESCE(SUM(balance), 0) FROM locked) WHERE id = ? " +
+                "RETURNING balance";
+        try (PreparedStatement statement = connection.prepareStatement(query)) {
+            statement.setLong(1, accountId);
+            statement.setLong(2, accountId);
+            statement.setLong(3, accountId);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    throw new UserNotFoundException("Account id " + accountId + " not found");
+                }
+                return resultSet.getLong("balance");
+            }
+        }
+    }
+
+    static long stripesBalance(Connection connection, long accountId) throws SQLException {
+        String query = "SELECT COALESCE(SUM(balance), 0) FROM account_balance_stripes WHERE account_id = ?";
+        try (PreparedStatement statement = connection.prepareStatement(query)) {
+            statement.setLong(1, accountId);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                return resultSet.getLong(1);
+            }
+        }
+    }
+
+    private Long transfer(AccountIdentity sender, AccountIdentity receiver, long amount, IdempotencyKey key, String senderName) {
+        long start = System.nanoTime();
+        try {
+            return ORDERED_MODE.equals(transferMode)
+                    ? transferByUsernameOrdered(sender, receiver, amount, key, senderName)
+                    : transferInStatement(sender, receiver, amount, key, senderName);
+        } finally {
+            transferLatency.recordSince(start);
+        }
+    }
+
+    private Long transferInStatement(AccountIdentity sender, AccountIdentity receiver, long amount, IdempotencyKey key,
+                                     String senderName) {
+        String idempotency = key != null
+                ? "), idempotency AS (" +
+                "    INSERT INTO idempotency_keys (user_id, idempotency_key, receiver_account_id, amount, balance) " +
+                "    SELECT ?, ?, (SELECT id FROM receiver), ?, debit.balance + " +
+                "    COALESCE((SELECT SUM(balance) FROM account_balance_stripes WHERE account_id = debit.id), 0) FROM debit"
+                : "";
+        String query = "WITH sender AS (" +
+                "    SELECT id, stripe_count FROM accounts WHERE id = ?" +
+                "), receiver AS (" +
+                "    SELECT id, stripe_count FROM accounts WHERE id = ?" +
+                "), debit AS (" +
+                "    UPDATE accounts SET balance = balance - ? " +
+                "    WHERE id = (SELECT id FROM sender) AND balance >= ? AND EXISTS (SELECT 1 FROM receiver) " +
+                "    RETURNING id, balance" +
+                "), credit AS (" +
+                "    UPDATE accounts SET balance = balance + ? " +
+                "    WHERE id = (SELECT id FROM receiver WHERE stripe_count = 0) AND EXISTS (SELECT 1 FROM debit)" +
+                "), stripe_credit AS (" +
+                "    UPDATE account_balance_stripes SET balance = balance + ? " +
+                "    WHERE account_id = (SELECT id FROM receiver WHERE stripe_count > 0) " +
+                "    AND stripe = ? % GREATEST((SELECT stripe_count FROM receiver), 1) AND EXISTS (SELECT 1 FROM debit)" +
+                idempotency +
+                "), ledger AS (" +
+                "    INSERT INTO transactions (sender_account_id, receiver_account_id, amount) " +
+                "    SELECT debit.id, (SELECT id FROM receiver), ? FROM debit" +
+                ") " +
+                "SELECT (SELECT stripe_count FROM sender) AS sender_stripes, (SELECT balance FROM debit) + COALESCE((SELECT SUM(balance) " +
+                "FROM account_balance_stripes WHERE account_id = (SELECT id FROM sender)), 0) AS balance";
+        //Single statement, but concurrent transfers between the same accounts can still deadlock on row locks
+        return transactionRunner.run(Connection.TRANSACTION_READ_COMMITTED, connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(query)) {
+                int index = 1;
+                statement.setLong(index++, sender.getAccountId());
+                statement.setLong(index++, receiver.getAccountId());
+                statement.setLong(index++, amount);
+                statement.setLong(index++, amount);
+                statement.setLong(index++, amount);
+                statement.setLong(index++, amount);
+                statement.setInt(index++, ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE));
+                if (key != null) {
+                    statement.setLong(index++, key.userId);
+                    statement.setString(index++, key.key);
+                    statement.setLong(index++, amount);
+                }
+                statement.setLong(index, amount);
+                try (ResultSet resultSet = execute(statement, key)) {
+                    resultSet.next();
+                    long balance = resultSet.getLong("balance");
+                    if (!resultSet.wasNull()) {
+                        return balance;
+                    }
+                    if (resultSet.getInt("sender_stripes") == 0) {
+                        throw new InsufficientBalanceException(senderName + " has insufficient balance");
+                    }
+                }
+            }
+            return transferLocked(connection, sender.getAccountId(), receiver.getAccountId(), receiver.getStripeCount(),
+                    amount, key, senderName);
+        });
+    }
+
+    /**
+     * Locks account rows in id order before touching them, so transfers in opposite directions
+     * between the same pair wait for each other instead of deadlocking.
+     * Balance is read under the lock, which keeps READ COMMITTED safe against overdraft.
+     * @return sender balance after the transfer
+     */
+    private Long transferByUsernameOrdered(AccountIdentity sender, AccountIdentity receiver, long amount,
+                                           IdempotencyKey key, String senderName) {
+        return transactionRunner.run(Connection.TRANSACTION_READ_COMMITTED, connection ->
+                transferLocked(connection, sender.getAccountId(), receiver.getAccountId(), receiver.getStripeCount(),
+                        amount, key, senderName));
+    }
+
+    /**
+     * Locks the sender row, and the receiver row unless the receiver is striped, checks the balance,
+     * then debits, credits and records the transaction in one round trip.
+     * A striped receiver is credited through a random stripe, so its account row is not locked at all.
+     * Receiver stripe count may come from the identity cache: a stale count is lower than the real one
+     * and still names existing stripes. Sender stripe count is read under the lock, its stripes decide the balance.
+     */
+    private Long transferLocked(Connection connection, long senderId, long receiverId, int receiverStripes,
+                                long amount, IdempotencyKey key, String senderName) throws SQLException {
+        Long[] lockIds = receiverStripes > 0 ? new Long[]{senderId} : new Long[]{senderId, receiverId};
+        String lockQuery = "SELECT id, balance, stripe_count FROM accounts WHERE id = ANY (?) ORDER BY id FOR UPDATE";
+        long senderBalance = 0;
+        int senderStripes = 0;
+        try (PreparedStatement lockStatement = connection.prepareStatement(lockQuery)) {
+            lockStatement.setArray(1, connection.createArrayOf("bigint", lockIds));
+            try (ResultSet resultSet = lockStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    if (resultSet.getLong("id") == senderId) {
+                        senderBalance = resultSet.getLong("balance");
+                        senderStripes = resultSet.getInt("stripe_count");
+                    }
+                }
+            }
+        }
+
+        long senderStripesBalance = 0;
+        if (senderStripes > 0) {
+            if (senderBalance < amount) {
+                senderBalance = sweepStripes(connection, senderId);
+            } else {
+                senderStripesBalance = stripesBalance(connection, senderId);
+            }
+        }
+        if (senderBalance < amount) {
+            throw new InsufficientBalanceException(senderName + " has insufficient balance");
+        }
+
+        String credit = receiverStripes > 0
+                ? "UPDATE account_balance_stripes SET balance = balance + ? WHERE account_id = ? AND stripe = ?"
+                : "UPDATE accounts SET balance = balance + ? WHERE id = ?";
+        String idempotency = key != null
+                ? ", idempotency AS (" +
+                "    INSERT INTO idempotency_keys (user_id, idempotency_key, receiver_account_id, amount, balance) VALUES (?, ?, ?, ?, ?))"
+                : "";
+        String query = "WITH debit AS (" +
+                "    UPDATE accounts SET balance = balance - ? WHERE id = ?" +
+                "), credit AS (" + credit + ")" + idempotency + " " +
+                "INSERT INTO transactions (sender_account_id, receiver_account_id, amount) VALUES (?, ?, ?)";
+        long balance = senderBalance - amount + senderStripesBalance;
+        try (PreparedStatement statement = connection.prepareStatement(query)) {
+            int index = 1;
+            statement.setLong(index++, amount);
+            statement.setLong(index++, senderId);
+            statement.setLong(index++, amount);
+            statement.setLong(index++, receiverId);
+            if (receiverStripes > 0) {
+                statement.setInt(index++, ThreadLocalRandom.current().nextInt(receiverStripes));
+            }
+            if (key != null) {
+                statement.setLong(index++, key.userId);
+                statement.setString(index++, key.key);
+                statement.setLong(index++, receiverId);
+                statement.setLong(index++, amount);
+                statement.setLong(index++, balance);
+            }
+            statement.setLong(index++, senderId);
+            statement.setLong(index++, receiverId);
+            statement.setLong(index, amount);
+            execute(statement, key);
+        }
+        return balance;
+    }
+
+    /**
+     * Runs a transfer statement, a taken idempotency key aborts the transfer.
+     * @return result set of a query, null for an update
+     */
+    private static ResultSet execute(PreparedStatement statement, IdempotencyKey key) throws SQLException {
+        try {
+            return statement.execute() ? statement.getResultSet() : null;
         } catch (SQLException e) {
-            log.error("Error occurred while transferring money: {}", e.getMessage());
-            throw new RuntimeSqlException("Error occurred while transferring money: {}" + e.getMessage());
+            if (key != null && IdempotencyStore.isKeyTaken(e)) {
+                throw new IdempotencyKeyTakenException();
+            }
+            throw e;
+        }
+    }
+
+    private static final class IdempotencyKey {
+        private final long userId;
+        private final String key;
+
+        private IdempotencyKey(long userId, String key) {
+            this.userId = userId;
+            this.key = key;
+        }
+    }
+
+    /**
+     * Thrown inside a transfer transaction to roll it back when its idempotency key turns out to be taken.
+     */
+    private static final class IdempotencyKeyTakenException extends RuntimeException {
+    }
+
+    private static final class ResolvedAccount {
+        private final long id;
+        private final int stripeCount;
+
+        private ResolvedAccount(long id, int stripeCount) {
+            this.id = id;
+            this.stripeCount = stripeCount;
         }
     }
 }
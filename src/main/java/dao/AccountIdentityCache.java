@@ -0,0 +1,120 @@
+package dao;
+
+import data.ConnectionPool;
+import exception.RuntimeSqlException;
+import lombok.extern.slf4j.Slf4j;
+import metrics.LatencyHistogram;
+import metrics.Metrics;
+import model.AccountIdentity;
+import utils.BoundedMap;
+import utils.PropertiesLoader;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Bounded cache of username to user and account ids, shared by the daos.
+ * Filled on signup and on the first lookup of a username, unknown usernames are not cached.
+ * Ids are loaded from the database, or from another source such as the in-memory daos.
+ */
+@Slf4j
+public class AccountIdentityCache {
+    private final Function<String, Optional<AccountIdentity>> loader;
+    private final int maxSize;
+    private final BoundedMap<String, AccountIdentity> entries;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+    private final LatencyHistogram loadLatency;
+
+    public AccountIdentityCache(ConnectionPool connectionPool) {
+        this(username -> load(connectionPool, username));
+    }
+
+    public AccountIdentityCache(Function<String, Optional<AccountIdentity>> loader) {
+        this.loader = loader;
+
+        final Properties dbProperties = PropertiesLoader.load("/db.properties");
+        maxSize = Integer.parseInt(dbProperties.getProperty("account.identity-cache.max-size", "100000"));
+        hits = Metrics.counter("cache_hits_total", "Cache lookups answered from the cache", "cache", "identity");
+        misses = Metrics.counter("cache_misses_total", "Cache lookups not found in the cache", "cache", "identity");
+        evictions = Metrics.counter("cache_evictions_total", "Entries dropped to keep a cache bounded", "cache", "identity");
+        //Ids never change, so entries are only dropped when the cache is full, least recently used first
+        entries = new BoundedMap<>(maxSize, identity -> false, evictions);
+        Metrics.gauge("cache_size", "Entries in a cache", this::getSize, "cache", "identity");
+        loadLatency = Metrics.operationTimer("identity_load");
+    }
+
+    /**
+     * @return ids of the user and its account, loaded from the source if the username is not cached
+     */
+    public Optional<AccountIdentity> get(String username) {
+        AccountIdentity identity = entries.get(username);
+        if (identity != null) {
+            hits.increment();
+            return Optional.of(identity);
+        }
+        misses.increment();
+
+        long start = System.nanoTime();
+        Optional<AccountIdentity> loaded;
+        try {
+            loaded = loader.apply(username);
+        } finally {
+            loadLatency.recordSince(start);
+        }
+        loaded.ifPresent(found -> put(username, found));
+        return loaded;
+    }
+
+    /**
+     * Caches ids known to be committed, replacing the cached ones.
+     */
+    public void put(String username, AccountIdentity identity) {
+        if (maxSize <= 0) {
+            return;
+        }
+        entries.put(username, identity);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public int getSize() {
+        return entries.size();
+    }
+
+    private static Optional<AccountIdentity> load(ConnectionPool connectionPool, String username) {
+        String query = "SELECT a.id, a.user_id, a.stripe_count FROM accounts a INNER JOIN users u ON a.user_id = u.id " +
+                "WHERE u.username = ?";
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(query)) {
+            statement.setString(1, username);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    return Optional.empty();
+                }
+                return Optional.of(new AccountIdentity(resultSet.getLong("user_id"), resultSet.getLong("id"),
+                        resultSet.getInt("stripe_count")));
+            }
+        } catch (SQLException e) {
+            log.error("Error occurred while retrieving account from database: {}", e.getMessage());
+            throw new RuntimeSqlException("Error occurred while retrieving account from database: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package dao;
+
+import exception.InsufficientBalanceException;
+import exception.RuntimeSqlException;
+import exception.ServiceOverloadedException;
+import exception.UserNotFoundException;
+import lombok.extern.slf4j.Slf4j;
+import metrics.LatencyHistogram;
+import metrics.Metrics;
+import model.Account;
+import utils.PropertiesLoader;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Group commit in front of an account dao. Concurrent transfers are collected for a short window
+ * or up to the batch size and applied in one transaction, so a batch costs a single commit.
+ * Each transfer is checked on its own, a failed transfer does not affect the rest of its batch.
+ * When batching is disabled every call goes straight to the delegate.
+ */
+@Slf4j
+public class BatchingAccountDao implements AccountDao {
+    private final AccountDao delegate;
+    private final TransactionRunner transactionRunner;
+    private final boolean enabled;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final BlockingQueue<PendingTransfer> queue;
+    private final LongAdder batches;
+    private final LongAdder batchedTransfers;
+    private final LatencyHistogram batchLatency;
+
+    public BatchingAccountDao(AccountDao delegate, TransactionRunner transactionRunner) {
+        this.delegate = delegate;
+        this.transactionRunner = transactionRunner;
+
+        final Properties dbProperties = PropertiesLoader.load("/db.properties");
+        enabled = Boolean.parseBoolean(dbProperties.getProperty("account.batch.enabled", "false"));
+        windowNanos = Duration.parse(dbProperties.getProperty("account.batch.window", "PT0.002S")).toNanos();
+        maxBatchSize = Integer.parseInt(dbProperties.getProperty("account.batch.max-size", "128"));
+        int workers = Integer.parseInt(dbProperties.getProperty("account.batch.workers", "2"));
+        queue = new ArrayBlockingQueue<>(Integer.parseInt(dbProperties.getProperty("account.batch.queue", "4096")));
+        batches = Metrics.counter("transfer_batches_total", "Transfer batches committed");
+        batchedTransfers = Metrics.counter("transfer_batched_total", "Transfers committed in batches");
+        batchLatency = Metrics.operationTimer("transfer_batch");
+        Metrics.gauge("transfer_batch_queue_depth", "Transfers waiting for a batch", this::getQueueDepth);
+
+        if (enabled) {
+            for (int i = 1; i <= workers; i++) {
+                Thread thread = new Thread(this::drain, "transfer-batch-" + i);
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+    }
+
+    @Override
+    public Optional<Account> getByUsername(String username) {
+        return delegate.getByUsername(username);
+    }
+
+    @Override
+    public void transferByAccountId(Long senderAccountId, Long receiverAccountId, Long amount) {
+        delegate.transferByAccountId(senderAccountId, receiverAccountId, amount);
+    }
+
+    /**
+     * Transfers with an idempotency key go straight to the delegate, which stores the key with the transfer.
+     */
+    @Override
+    public Long transferByUsername(String senderUsername, String receiverUsername, Long amount, String idempotencyKey) {
+        if (!enabled || idempotencyKey != null) {
+            return delegate.transferByUsername(senderUsername, receiverUsername, amount, idempotencyKey);
+        }
+
+        PendingTransfer transfer = new PendingTransfer(senderUsername, receiverUsername, amount);
+        if (!queue.offer(transfer)) {
+            throw new ServiceOverloadedException("Too many pending transfers, try again later");
+        }
+        try {
+            return transfer.result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeSqlException("Error occurred while transferring money: " + e.getCause().getMessage());
+        }
+    }
+
+    @Override
+    public void enableStriping(String username, int stripes) {
+        delegate.enableStriping(username, stripes);
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    public long getBatchedTransfers() {
+        return batchedTransfers.sum();
+    }
+
+    private void drain() {
+        List<PendingTransfer> batch = new ArrayList<>(maxBatchSize);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatchSize) {
+                    PendingTransfer next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                apply(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                batch.forEach(transfer -> transfer.result.completeExceptionally(
+                        new RuntimeSqlException("Transfer batching was stopped")));
+                batch.clear();
+            }
+        }
+    }
+
+    private void apply(List<PendingTransfer> batch) {
+        long start = System.nanoTime();
+        try {
+            transactionRunner.run(Connection.TRANSACTION_READ_COMMITTED, connection -> applyBatch(connection, batch));
+        } catch (RuntimeException e) {
+            log.error("Error occurred while applying batch of {} transfers: {}", batch.size(), e.getMessage());
+            batch.forEach(transfer -> transfer.result.completeExceptionally(e));
+            return;
+        } finally {
+            batchLatency.recordSince(start);
+        }
+
+        batches.increment();
+        batchedTransfers.add(batch.size());
+        for (PendingTransfer transfer : batch) {
+            if (transfer.failure != null) {
+                transfer.result.completeExceptionally(transfer.failure);
+            } else {
+                transfer.result.complete(transfer.balance);
+            }
+        }
+    }
+
+    /**
+     * Locks every account of the batch in id order, applies the transfers in arrival order against
+     * the locked balances, then writes the changed balances and ledger rows.
+     * Outcomes are kept on the transfers and reset on every attempt, since the runner may retry the whole batch.
+     */
+    private Void applyBatch(Connection connection, List<PendingTransfer> batch) throws SQLException {
+        Set<String> usernames = new HashSet<>();
+        for (PendingTransfer transfer : batch) {
+            usernames.add(transfer.senderUsername);
+            usernames.add(transfer.receiverUsername);
+        }
+
+        Map<String, LockedAccount> accounts = new HashMap<>();
+        String lockQuery = "SELECT a.id, a.balance, a.stripe_count, u.username FROM accounts a INNER JOIN users u ON a.user_id = u.id " +
+                "WHERE u.username = ANY (?) ORDER BY a.id FOR UPDATE OF a";
+        try (PreparedStatement lockStatement = connection.prepareStatement(lockQuery)) {
+            lockStatement.setArray(1, connection.createArrayOf("varchar", usernames.toArray()));
+            try (ResultSet resultSet = lockStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    accounts.put(resultSet.getString("username"), new LockedAccount(
+                            resultSet.getLong("id"), resultSet.getLong("balance"), resultSet.getInt("stripe_count") > 0));
+                }
+            }
+        }
+
+        List<PendingTransfer> applied = new ArrayList<>(batch.size());
+        for (PendingTransfer transfer : batch) {
+            transfer.balance = null;
+            transfer.failure = null;
+            LockedAccount sender = accounts.get(transfer.senderUsername);
+            LockedAccount receiver = accounts.get(transfer.receiverUsername);
+            if (sender == null) {
+                transfer.failure = new UserNotFoundException(
+                        "User " + transfer.senderUsername + " not found or does not have an account");
+            } else if (receiver == null) {
+                transfer.failure = new UserNotFoundException(
+                        "User " + transfer.receiverUsername + " not found or does not have an account");
+            } else {
+                //Stripes of a striped sender are swept only when the account row alone is short
+                if (sender.striped && !sender.swept && sender.balance < transfer.amount) {
+                    sender.balance += AccountDaoImpl.sweepStripes(connection, sender.id) - sender.lockedBalance;
+                    sender.swept = true;
+                }
+                if (sender.balance < transfer.amount) {
+                    transfer.failure = new InsufficientBalanceException(
+                            "User " + transfer.senderUsername + " has insufficient balance");
+                    continue;
+                }
+                sender.balance -= transfer.amount;
+                receiver.balance += transfer.amount;
+                sender.changed = true;
+                receiver.changed = true;
+                transfer.senderAccountId = sender.id;
+                transfer.receiverAccountId = receiver.id;
+                transfer.balance = sender.balance;
+                if (sender.striped && !sender.swept) {
+                    if (sender.stripesBalance == null) {
+                        sender.stripesBalance = AccountDaoImpl.stripesBalance(connection, sender.id);
+                    }
+                    transfer.balance += sender.stripesBalance;
+                }
+                applied.add(transfer);
+            }
+        }
+        if (applied.isEmpty()) {
+            return null;
+        }
+
+        String updateQuery = "UPDATE accounts SET balance = ? WHERE id = ?";
+        try (PreparedStatement updateStatement = connection.prepareStatement(updateQuery)) {
+            for (LockedAccount account : accounts.values()) {
+                if (account.changed) {
+                    updateStatement.setLong(1, account.balance);
+                    updateStatement.setLong(2, account.id);
+                    updateStatement.addBatch();
+                }
+            }
+            updateStatement.executeBatch();
+        }
+
+        StringBuilder ledgerQuery = new StringBuilder("INSERT INTO transactions (sender_account_id, receiver_account_id, amount) VALUES ");
+        for (int i = 0; i < applied.size(); i++) {
+            ledgerQuery.append(i == 0 ? "(?, ?, ?)" : ", (?, ?, ?)");
+        }
+        try (PreparedStatement ledgerStatement = connection.prepareStatement(ledgerQuery.toString())) {
+            int index = 1;
+            for (PendingTransfer transfer : applied) {
+                ledgerStatement.setLong(index++, transfer.senderAccountId);
+                ledgerStatement.setLong(index++, transfer.receiverAccountId);
+                ledgerStatement.setLong(index++, transfer.amount);
+            }
+            ledgerStatement.executeUpdate();
+        }
+        return null;
+    }
+
+    private static final class PendingTransfer {
+        private final String senderUsername;
+        private final String receiverUsername;
+        private final long amount;
+        private final CompletableFuture<Long> result;
+        private long senderAccountId;
+        private long receiverAccountId;
+        private Long balance;
+        private RuntimeException failure;
+
+        private PendingTransfer(String senderUsername, String receiverUsername, long amount) {
+            this.senderUsername = senderUsername;
+            this.receiverUsername = receiverUsername;
+            this.amount = amount;
+            result = new CompletableFuture<>();
+        }
+    }
+
+    private static final class LockedAccount {
+        private final long id;
+        private final long lockedBalance;
+        private final boolean striped;
+        private long balance;
+        private Long stripesBalance;
+        private boolean swept;
+        private boolean changed;
+
+        private LockedAccount(long id, long balance, boolean striped) {
+            this.id = id;
+            this.lockedBalance = balance;
+            this.balance = balance;
+            this.striped = striped;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package dao;
+
+import data.ConnectionPool;
+import exception.IdempotencyKeyInProgressException;
+import exception.IdempotencyKeyMismatchException;
+import exception.RuntimeSqlException;
+import lombok.extern.slf4j.Slf4j;
+import metrics.LatencyHistogram;
+import metrics.Metrics;
+import model.IdempotentTransfer;
+import org.postgresql.util.PSQLException;
+import org.postgresql.util.ServerErrorMessage;
+import utils.BoundedMap;
+import utils.PropertiesLoader;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Outcomes of transfers made with an idempotency key, keyed by sender user id and key.
+ * Transfer daos insert the key in the transaction of the transfer itself, so a key is stored if and only if its transfer
+ * is committed. A concurrent retry waits on the uncommitted key and fails on the primary key once it is committed.
+ * Completed keys are kept in a bounded cache, so a retry usually does not reach the database.
+ */
+@Slf4j
+public class IdempotencyStore {
+    private static final String UNIQUE_VIOLATION = "23505";
+    private static final String KEY_CONSTRAINT = "pk_idempotency_keys";
+
+    private final ConnectionPool connectionPool;
+    private final int maxSize;
+    private final BoundedMap<String, IdempotentTransfer> entries;
+    private final LongAdder replays;
+    private final LongAdder evictions;
+    private final LatencyHistogram loadLatency;
+
+    public IdempotencyStore(ConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+
+        final Properties dbProperties = PropertiesLoader.load("/db.properties");
+        maxSize = Integer.parseInt(dbProperties.getProperty("idempotency.cache.max-size", "100000"));
+        replays = Metrics.counter("idempotency_replays_total", "Transfers answered with the stored result of an earlier request");
+        evictions = Metrics.counter("cache_evictions_total", "Entries dropped to keep a cache bounded", "cache", "idempotency");
+        //A retry of an evicted key is answered from the database
+        entries = new BoundedMap<>(maxSize, transfer -> false, evictions);
+        Metrics.gauge("cache_size", "Entries in a cache", this::getSize, "cache", "idempotency");
+        loadLatency = Metrics.operationTimer("idempotency_load");
+    }
+
+    /**
+     * @return sender balance of a completed transfer cached under the key, empty if the key is not cached
+     */
+    public Optional<Long> getCached(long userId, String key, long receiverAccountId, long amount) {
+        IdempotentTransfer transfer = entries.get(cacheKey(userId, key));
+        if (transfer == null) {
+            return Optional.empty();
+        }
+        return Optional.of(replay(key, transfer, receiverAccountId, amount));
+    }
+
+    /**
+     * Reads the transfer stored under the key, after the transfer dao found the key taken or the transfer rejected.
+     * @return sender balance returned by the original transfer, empty if the key is not stored
+     */
+    public Optional<Long> getStored(long userId, String key, long receiverAccountId, long amount) {
+        String query = "SELECT receiver_account_id, amount, balance FROM idempotency_keys WHERE user_id = ? AND idempotency_key = ?";
+        long start = System.nanoTime();
+        IdempotentTransfer transfer;
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(query)) {
+            statement.setLong(1, userId);
+            statement.setString(2, key);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    return Optional.empty();
+                }
+                long receiverId = resultSet.getLong("receiver_account_id");
+                long storedAmount = resultSet.getLong("amount");
+                long balance = resultSet.getLong("balance");
+                transfer = new IdempotentTransfer(receiverId, storedAmount, resultSet.wasNull() ? null : balance);
+            }
+        } catch (SQLException e) {
+            log.error("Error occurred while retrieving idempotency key from database: {}", e.getMessage());
+            throw new RuntimeSqlException("Error occurred while retrieving idempotency key from database: " + e.getMessage());
+        } finally {
+            loadLatency.recordSince(start);
+        }
+        long balance = replay(key, transfer, receiverAccountId, amount);
+        put(userId, key, transfer);
+        return Optional.of(balance);
+    }
+
+    /**
+     * Caches a transfer known to be committed.
+     */
+    public void put(long userId, String key, IdempotentTransfer transfer) {
+        if (maxSize <= 0 || transfer.getBalance() == null) {
+            return;
+        }
+        entries.put(cacheKey(userId, key), transfer);
+    }
+
+    /**
+     * Stores the key with no balance before a transfer that is not committed to the database, such as a ledger transfer.
+     * The claim id goes with the transfer, so the key can be completed or reconciled without the request.
+     * @return id of the claim, empty if the key is taken already
+     */
+    public Optional<Long> claim(long userId, String key, long receiverAccountId, long amount) {
+        String query = "INSERT INTO idempotency_keys (user_id, idempotency_key, receiver_account_id, amount, claim_id) " +
+                "VALUES (?, ?, ?, ?, nextval('idempotency_claim_seq')) ON CONFLICT DO NOTHING RETURNING claim_id";
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(query)) {
+            statement.setLong(1, userId);
+            statement.setString(2, key);
+            statement.setLong(3, receiverAccountId);
+            statement.setLong(4, amount);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? Optional.of(resultSet.getLong("claim_id")) : Optional.empty();
+            }
+        } catch (SQLException e) {
+            log.error("Error occurred while saving idempotency key to database: {}", e.getMessage());
+            throw new RuntimeSqlException("Error occurred while saving idempotency key to database: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Records the balance of a claimed key once its transfer is durable.
+     */
+    public void complete(long userId, String key, IdempotentTransfer transfer) {
+        String query = "UPDATE idempotency_keys SET balance = ? WHERE user_id = ? AND idempotency_key = ?";
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(query)) {
+            statement.setLong(1, transfer.getBalance());
+            statement.setLong(2, userId);
+            statement.setString(3, key);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            log.error("Error occurred while saving idempotency key to database: {}", e.getMessage());
+            throw new RuntimeSqlException("Error occurred while saving idempotency key to database: " + e.getMessage());
+        }
+        put(userId, key, transfer);
+    }
+
+    /**
+     * Frees a claimed key whose transfer was rejected, so the key can be used again.
+     */
+    public void release(long userId, String key) {
+        String query = "DELETE FROM idempotency_keys WHERE user_id = ? AND idempotency_key = ? AND balance IS NULL";
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(query)) {
+            statement.setLong(1, userId);
+            statement.setString(2, key);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            log.error("Error occurred while deleting idempotency key from database: {}", e.getMessage());
+            throw new RuntimeSqlException("Error occurred while deleting idempotency key from database: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return id of the latest claim, 0 if there are none
+     */
+    public long getLastClaimId() {
+        String query = "SELECT COALESCE(MAX(claim_id), 0) FROM idempotency_keys";
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(query);
+             ResultSet resultSet = statement.executeQuery()) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        } catch (SQLException e) {
+            log.error("Error occurred while retrieving idempotency claims from database: {}", e.getMessage());
+            throw new RuntimeSqlException("Error occurred while retrieving idempotency claims from database: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Frees the keys claimed up to the given claim that are still not completed. Called once every transfer
+     * logged before is completed, so these transfers never reached the ledger and the keys can be used again.
+     * @return number of freed keys
+     */
+    public int releaseOpenClaims(long lastClaimId) {
+        String query = "DELETE FROM idempotency_keys WHERE claim_id <= ? AND balance IS NULL";
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(query)) {
+            statement.setLong(1, lastClaimId);
+            return statement.executeUpdate();
+        } catch (SQLException e) {
+            log.error("Error occurred while deleting idempotency claims from database: {}", e.getMessage());
+            throw new RuntimeSqlException("Error occurred while deleting idempotency claims from database: " + e.getMessage());
+        }
+    }
+
+    public long getReplays() {
+        return replays.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * @return true if the statement failed because the idempotency key is taken
+     */
+    static boolean isKeyTaken(SQLException e) {
+        if (!UNIQUE_VIOLATION.equals(e.getSQLState()) || !(e instanceof PSQLException)) {
+            return false;
+        }
+        ServerErrorMessage serverError = ((PSQLException) e).getServerErrorMessage();
+        return serverError != null && KEY_CONSTRAINT.equals(serverError.getConstraint());
+    }
+
+    private long replay(String key, IdempotentTransfer transfer, long receiverAccountId, long amount) {
+        if (transfer.getReceiverAccountId() != receiverAccountId || transfer.getAmount() != amount) {
+            throw new IdempotencyKeyMismatchException("Idempotency key " + key + " was used for a different transfer");
+        }
+        if (transfer.getBalance() == null) {
+            throw new IdempotencyKeyInProgressException("Transfer with idempotency key " + key + " is in progress");
+        }
+        replays.increment();
+        return transfer.getBalance();
+    }
+
+    private static String cacheKey(long userId, String key) {
+        return userId + ":" + key;
+    }
+}
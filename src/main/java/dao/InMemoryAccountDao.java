@@ -0,0 +1,178 @@
+package dao;
+
+import exception.IdempotencyKeyMismatchException;
+import exception.InsufficientBalanceException;
+import exception.UserNotFoundException;
+import metrics.Metrics;
+import model.Account;
+import model.AccountIdentity;
+import model.IdempotentTransfer;
+import utils.BoundedMap;
+import utils.PropertiesLoader;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Accounts kept in memory, so the service can be run and profiled without a database. Nothing survives a restart.
+ * A transfer holds the locks of both accounts, taken from a fixed array of lock stripes in index order,
+ * so transfers in opposite directions wait for each other instead of deadlocking.
+ * Balance check, debit, credit, history and idempotency key of a transfer are all done under both locks.
+ * Idempotency keys are bounded like the cache of the database daos, the least recently used ones are forgotten.
+ */
+public class InMemoryAccountDao implements AccountDao {
+    private static final long INITIAL_BALANCE = 50000;
+
+    private final InMemoryTransactionDao transactionDao;
+    private final Map<String, MemoryAccount> accountsByUsername;
+    private final Map<Long, MemoryAccount> accountsById;
+    private final BoundedMap<String, IdempotentTransfer> idempotencyKeys;
+    private final AtomicLong sequence;
+    private final ReentrantLock[] locks;
+
+    public InMemoryAccountDao(InMemoryTransactionDao transactionDao) {
+        this.transactionDao = transactionDao;
+        accountsByUsername = new ConcurrentHashMap<>();
+        accountsById = new ConcurrentHashMap<>();
+        sequence = new AtomicLong();
+
+        final Properties dbProperties = PropertiesLoader.load("/db.properties");
+        idempotencyKeys = new BoundedMap<>(Integer.parseInt(dbProperties.getProperty("idempotency.memory.max-size", "100000")),
+                transfer -> false,
+                Metrics.counter("cache_evictions_total", "Entries dropped to keep a cache bounded", "cache", "memory-idempotency"));
+        Metrics.gauge("cache_size", "Entries in a cache", idempotencyKeys::size, "cache", "memory-idempotency");
+        locks = new ReentrantLock[Integer.parseInt(dbProperties.getProperty("account.memory.lock-stripes", "256"))];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Opens the account of a new user with the same starting balance the database dao gives it.
+     */
+    public AccountIdentity open(long userId, String username) {
+        MemoryAccount account = new MemoryAccount(sequence.incrementAndGet(), userId, username, INITIAL_BALANCE);
+        transactionDao.register(username);
+        accountsById.put(account.id, account);
+        accountsByUsername.put(username, account);
+        return account.identity();
+    }
+
+    public Optional<AccountIdentity> getIdentity(String username) {
+        return Optional.ofNullable(accountsByUsername.get(username)).map(MemoryAccount::identity);
+    }
+
+    @Override
+    public Optional<Account> getByUsername(String username) {
+        return Optional.ofNullable(accountsByUsername.get(username))
+                .map(account -> new Account(account.id, account.userId, account.balance));
+    }
+
+    @Override
+    public void transferByAccountId(Long senderAccountId, Long receiverAccountId, Long amount) {
+        MemoryAccount sender = accountsById.get(senderAccountId);
+        if (sender == null) {
+            throw new UserNotFoundException("Account id " + senderAccountId + " not found");
+        }
+        MemoryAccount receiver = accountsById.get(receiverAccountId);
+        if (receiver == null) {
+            throw new UserNotFoundException("Account id " + receiverAccountId + " not found");
+        }
+        transfer(sender, receiver, amount, null, "Account id " + senderAccountId);
+    }
+
+    /**
+     * Keys are checked and stored under the sender lock, so a repeated key returns the stored balance
+     * without a transfer in progress ever being seen.
+     * @return sender balance after the transfer
+     */
+    @Override
+    public Long transferByUsername(String senderUsername, String receiverUsername, Long amount, String idempotencyKey) {
+        MemoryAccount sender = accountsByUsername.get(senderUsername);
+        if (sender == null) {
+            throw new UserNotFoundException("User " + senderUsername + " not found or does not have an account");
+        }
+        MemoryAccount receiver = accountsByUsername.get(receiverUsername);
+        if (receiver == null) {
+            throw new UserNotFoundException("User " + receiverUsername + " not found or does not have an account");
+        }
+        return transfer(sender, receiver, amount, idempotencyKey, "User " + senderUsername);
+    }
+
+    /**
+     * Accounts are single objects behind their lock stripe, there are no rows to split.
+     */
+    @Override
+    public void enableStriping(String username, int stripes) {
+        if (!accountsByUsername.containsKey(username)) {
+            throw new UserNotFoundException("User " + username + " not found or does not have an account");
+        }
+    }
+
+    private long transfer(MemoryAccount sender, MemoryAccount receiver, long amount, String idempotencyKey,
+                          String senderName) {
+        int senderStripe = stripe(sender.id);
+        int receiverStripe = stripe(receiver.id);
+        ReentrantLock first = locks[Math.min(senderStripe, receiverStripe)];
+        ReentrantLock second = locks[Math.max(senderStripe, receiverStripe)];
+        first.lock();
+        second.lock();
+        try {
+            String key = idempotencyKey != null ? sender.userId + ":" + idempotencyKey : null;
+            if (key != null) {
+                IdempotentTransfer stored = idempotencyKeys.get(key);
+                if (stored != null) {
+                    if (stored.getReceiverAccountId() != receiver.id || stored.getAmount() != amount) {
+                        throw new IdempotencyKeyMismatchException("Idempotency key " + idempotencyKey
+                                + " was used for a different transfer");
+                    }
+                    return stored.getBalance();
+                }
+            }
+            if (sender.balance < amount) {
+                throw new InsufficientBalanceException(senderName + " has insufficient balance");
+            }
+            sender.balance -= amount;
+            receiver.balance += amount;
+            transactionDao.record(sender.username, receiver.username, amount);
+            if (key != null) {
+                idempotencyKeys.put(key, new IdempotentTransfer(receiver.id, amount, sender.balance));
+            }
+            return sender.balance;
+        } finally {
+            second.unlock();
+            first.unlock();
+        }
+    }
+
+    public int getIdempotencyKeyCount() {
+        return idempotencyKeys.size();
+    }
+
+    private int stripe(long accountId) {
+        return (int) (accountId % locks.length);
+    }
+
+    private static final class MemoryAccount {
+        private final long id;
+        private final long userId;
+        private final String username;
+        //Written under the account's lock stripe, read without it
+        private volatile long balance;
+
+        private MemoryAccount(long id, long userId, String username, long balance) {
+            this.id = id;
+            this.userId = userId;
+            this.username = username;
+            this.balance = balance;
+        }
+
+        private AccountIdentity identity() {
+            return new AccountIdentity(userId, id, 0);
+        }
+    }
+}
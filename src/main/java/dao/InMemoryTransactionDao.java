@@ -0,0 +1,94 @@
+package dao;
+
+import exception.UserNotFoundException;
+import model.Transaction;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Transaction history of the in-memory account dao, one list per user in id order.
+ * Transfers are recorded while both accounts are locked, so transfers of a user are appended in the order of their ids.
+ */
+public class InMemoryTransactionDao implements TransactionDao {
+    private final Map<String, List<Transaction>> histories;
+    private final AtomicLong sequence;
+
+    public InMemoryTransactionDao() {
+        histories = new ConcurrentHashMap<>();
+        sequence = new AtomicLong();
+    }
+
+    /**
+     * Starts an empty history, users without one are unknown.
+     */
+    public void register(String username) {
+        histories.putIfAbsent(username, new ArrayList<>());
+    }
+
+    public void record(String senderUsername, String receiverUsername, long amount) {
+        Transaction transaction = new Transaction(sequence.incrementAndGet(), senderUsername, receiverUsername, amount,
+                Instant.now());
+        append(senderUsername, transaction);
+        append(receiverUsername, transaction);
+    }
+
+    @Override
+    public List<Transaction> getByUsername(String username, Long beforeId, int limit) {
+        List<Transaction> history = history(username);
+        long cursor = beforeId != null ? beforeId : Long.MAX_VALUE;
+        List<Transaction> page = new ArrayList<>(limit);
+        synchronized (history) {
+            //Ids ascend, the page ends right before the first transaction at or above the cursor
+            int low = 0;
+            int high = history.size();
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (history.get(middle).getId() < cursor) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            for (int i = low - 1; i >= 0 && page.size() < limit; i--) {
+                page.add(history.get(i));
+            }
+        }
+        return page;
+    }
+
+    /**
+     * The history is copied first, the consumer writes to the client without holding the list.
+     */
+    @Override
+    public void streamByUsername(String username, TransactionConsumer consumer) throws IOException {
+        List<Transaction> history = history(username);
+        List<Transaction> snapshot;
+        synchronized (history) {
+            snapshot = new ArrayList<>(history);
+        }
+        for (Transaction transaction : snapshot) {
+            consumer.accept(transaction);
+        }
+    }
+
+    private void append(String username, Transaction transaction) {
+        List<Transaction> history = history(username);
+        synchronized (history) {
+            history.add(transaction);
+        }
+    }
+
+    private List<Transaction> history(String username) {
+        List<Transaction> history = histories.get(username);
+        if (history == null) {
+            throw new UserNotFoundException("User " + username + " not found or does not have an account");
+        }
+        return history;
+    }
+}
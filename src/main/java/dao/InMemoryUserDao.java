@@ -0,0 +1,44 @@
+package dao;
+
+import exception.UsernameAlreadyExistsException;
+import lombok.extern.slf4j.Slf4j;
+import model.User;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Users kept in memory next to the in-memory accounts. Signing up opens the account, as the database dao does.
+ */
+@Slf4j
+public class InMemoryUserDao implements UserDao {
+    private final InMemoryAccountDao accountDao;
+    private final Map<String, User> users;
+    private final AtomicLong sequence;
+
+    public InMemoryUserDao(InMemoryAccountDao accountDao) {
+        this.accountDao = accountDao;
+        users = new ConcurrentHashMap<>();
+        sequence = new AtomicLong();
+    }
+
+    @Override
+    public User create(User user) {
+        long id = sequence.incrementAndGet();
+        if (users.putIfAbsent(user.getUsername(), new User(id, user.getUsername(), user.getPassword())) != null) {
+            log.error("User with username {} already exists", user.getUsername());
+            throw new UsernameAlreadyExistsException("User with username " + user.getUsername() + " already exists");
+        }
+        accountDao.open(id, user.getUsername());
+        user.setId(id);
+        return user;
+    }
+
+    @Override
+    public Optional<User> getByUsername(String username) {
+        return Optional.ofNullable(users.get(username))
+                .map(user -> new User(user.getId(), user.getUsername(), user.getPassword()));
+    }
+}
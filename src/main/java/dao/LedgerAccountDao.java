@@ -0,0 +1,152 @@
+package dao;
+
+import exception.IdempotencyKeyInProgressException;
+import exception.InsufficientBalanceException;
+import exception.LedgerWriteException;
+import exception.UserNotFoundException;
+import ledger.Ledger;
+import ledger.LedgerExporter;
+import lombok.extern.slf4j.Slf4j;
+import model.Account;
+import model.AccountIdentity;
+import model.IdempotentTransfer;
+
+import java.sql.Connection;
+import java.util.Optional;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Account dao backed by the in-memory ledger. The database is only read to resolve usernames missing from the identity cache
+ * and to load the balance of an account the first time the ledger sees it.
+ * While the ledger is in use it owns the balances, the database follows through the ledger exporter.
+ */
+@Slf4j
+public class LedgerAccountDao implements AccountDao {
+    private final TransactionRunner transactionRunner;
+    private final AccountIdentityCache identityCache;
+    private final IdempotencyStore idempotencyStore;
+    private final Ledger ledger;
+
+    public LedgerAccountDao(TransactionRunner transactionRunner, AccountIdentityCache identityCache,
+                            IdempotencyStore idempotencyStore, Ledger ledger) {
+        this.transactionRunner = transactionRunner;
+        this.identityCache = identityCache;
+        this.idempotencyStore = idempotencyStore;
+        this.ledger = ledger;
+    }
+
+    @Override
+    public Optional<Account> getByUsername(String username) {
+        Optional<AccountIdentity> identity = identityCache.get(username);
+        if (identity.isEmpty()) {
+            return Optional.empty();
+        }
+        long accountId = identity.get().getAccountId();
+        return Optional.of(new Account(accountId, identity.get().getUserId(), balance(accountId)));
+    }
+
+    @Override
+    public void transferByAccountId(Long senderAccountId, Long receiverAccountId, Long amount) {
+        balance(senderAccountId);
+        balance(receiverAccountId);
+        transfer(senderAccountId, receiverAccountId, amount, 0, "Account id " + senderAccountId);
+    }
+
+    /**
+     * Ledger transfers are not committed to the database, so an idempotency key is claimed before the transfer
+     * and completed with the balance once the transfer is durable. A rejected transfer frees its key.
+     * A transfer with an unknown outcome keeps it claimed and its retries are refused as in progress:
+     * the claim is logged with the transfer, so the exporter completes the key if the transfer was logged,
+     * otherwise the key is freed after the next restart.
+     */
+    @Override
+    public Long transferByUsername(String senderUsername, String receiverUsername, Long amount, String idempotencyKey) {
+        AccountIdentity sender = identityCache.get(senderUsername).orElseThrow(
+                () -> new UserNotFoundException("User " + senderUsername + " not found or does not have an account"));
+        AccountIdentity receiver = identityCache.get(receiverUsername).orElseThrow(
+                () -> new UserNotFoundException("User " + receiverUsername + " not found or does not have an account"));
+        balance(sender.getAccountId());
+        balance(receiver.getAccountId());
+        if (idempotencyKey == null) {
+            return transfer(sender.getAccountId(), receiver.getAccountId(), amount, 0, "User " + senderUsername);
+        }
+
+        long userId = sender.getUserId();
+        long receiverId = receiver.getAccountId();
+        Optional<Long> cached = idempotencyStore.getCached(userId, idempotencyKey, receiverId, amount);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+        Optional<Long> claimId = idempotencyStore.claim(userId, idempotencyKey, receiverId, amount);
+        if (claimId.isEmpty()) {
+            return idempotencyStore.getStored(userId, idempotencyKey, receiverId, amount).orElseThrow(
+                    () -> new IdempotencyKeyInProgressException("Transfer with idempotency key " + idempotencyKey + " is in progress"));
+        }
+        Long balance;
+        try {
+            balance = transfer(sender.getAccountId(), receiverId, amount, claimId.get(), "User " + senderUsername);
+        } catch (LedgerWriteException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            idempotencyStore.release(userId, idempotencyKey);
+            throw e;
+        }
+        idempotencyStore.complete(userId, idempotencyKey, new IdempotentTransfer(receiverId, amount, balance));
+        return balance;
+    }
+
+    /**
+     * Frees the idempotency keys claimed before the start whose transfers never reached the ledger.
+     * Keys of logged transfers are completed by the export of their transfers, so the keys still open
+     * once the transfers recovered from the log are exported are the ones to free. Runs on the export thread.
+     */
+    public void reconcileClaims(LedgerExporter exporter) {
+        long lastClaimId = idempotencyStore.getLastClaimId();
+        exporter.whenExported(ledger.getRecoveredSeq())
+                .thenRun(() -> {
+                    int released = idempotencyStore.releaseOpenClaims(lastClaimId);
+                    log.info("Released {} idempotency keys claimed for transfers that were not logged", released);
+                })
+                .exceptionally(e -> {
+                    log.error("Error occurred while releasing idempotency keys after ledger recovery: {}", e.getMessage());
+                    return null;
+                });
+    }
+
+    /**
+     * Ledger balances have no row locks to contend on, so striping is not needed.
+     */
+    @Override
+    public void enableStriping(String username, int stripes) {
+        log.info("Balances are kept by the in-memory ledger, striping for user {} is skipped", username);
+    }
+
+    private Long transfer(long senderAccountId, long receiverAccountId, long amount, long claimId, String senderName) {
+        try {
+            return ledger.transfer(senderAccountId, receiverAccountId, amount, claimId).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof InsufficientBalanceException) {
+                throw new InsufficientBalanceException(senderName + " has insufficient balance");
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new LedgerWriteException("Error occurred while transferring money: " + e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Returns the ledger balance, loading the account from the database on first use.
+     * Stripes are swept into the account row first, so the row alone holds the balance the ledger takes over.
+     */
+    private long balance(long accountId) {
+        Long balance = ledger.getBalance(accountId);
+        if (balance != null) {
+            return balance;
+        }
+        long loaded = transactionRunner.run(Connection.TRANSACTION_READ_COMMITTED,
+                connection -> AccountDaoImpl.sweepStripes(connection, accountId));
+        ledger.load(accountId, loaded);
+        return loaded;
+    }
+}
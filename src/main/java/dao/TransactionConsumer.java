@@ -0,0 +1,10 @@
+package dao;
+
+import model.Transaction;
+
+import java.io.IOException;
+
+@FunctionalInterface
+public interface TransactionConsumer {
+    void accept(Transaction transaction) throws IOException;
+}
@@ -0,0 +1,20 @@
+package dao;
+
+import model.Transaction;
+
+import java.io.IOException;
+import java.util.List;
+
+public interface TransactionDao {
+    /**
+     * @param beforeId only transactions with lower ids are returned, null starts from the newest one
+     * @return transactions sent or received by the user, newest first
+     */
+    List<Transaction> getByUsername(String username, Long beforeId, int limit);
+
+    /**
+     * Passes every transaction sent or received by the user to the consumer, oldest first,
+     * without holding more than one fetch of rows in memory.
+     */
+    void streamByUsername(String username, TransactionConsumer consumer) throws IOException;
+}
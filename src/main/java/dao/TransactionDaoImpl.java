@@ -0,0 +1,143 @@
+package dao;
+
+import data.ConnectionPool;
+import exception.RuntimeSqlException;
+import exception.UserNotFoundException;
+import lombok.extern.slf4j.Slf4j;
+import metrics.LatencyHistogram;
+import metrics.Metrics;
+import model.AccountIdentity;
+import model.Transaction;
+import utils.PropertiesLoader;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+@Slf4j
+public class TransactionDaoImpl implements TransactionDao {
+    private final ConnectionPool connectionPool;
+    private final AccountIdentityCache identityCache;
+    private final int exportFetchSize;
+    private final LatencyHistogram pageLatency;
+
+    public TransactionDaoImpl(ConnectionPool connectionPool, AccountIdentityCache identityCache) {
+        this.connectionPool = connectionPool;
+        this.identityCache = identityCache;
+        pageLatency = Metrics.operationTimer("history_page");
+
+        final Properties dbProperties = PropertiesLoader.load("/db.properties");
+        exportFetchSize = Integer.parseInt(dbProperties.getProperty("transaction.export.fetch-size", "1000"));
+    }
+
+    /**
+     * Keyset pagination: sent and received transactions are each read as a range of the (account id, id) index
+     * starting below the cursor, so a page costs the same however deep into the history it is.
+     * Usernames are joined to the page only.
+     */
+    @Override
+    public List<Transaction> getByUsername(String username, Long beforeId, int limit) {
+        long start = System.nanoTime();
+        try {
+            AccountIdentity identity = identityCache.get(username).orElseThrow(
+                    () -> new UserNotFoundException("User " + username + " not found or does not have an account"));
+            long cursor = beforeId != null ? beforeId : Long.MAX_VALUE;
+
+            String query = "SELECT h.id, h.amount, h.created_at, su.username AS sender, ru.username AS receiver FROM (" +
+                    "    (SELECT id, sender_account_id, receiver_account_id, amount, created_at FROM transactions " +
+                    "     WHERE sender_account_id = ? AND id < ? ORDER BY id DESC LIMIT ?)" +
+                    "    UNION ALL " +
+                    "    (SELECT id, sender_account_id, receiver_account_id, amount, created_at FROM transactions " +
+                    "     WHERE receiver_account_id = ? AND id < ? ORDER BY id DESC LIMIT ?)" +
+                    "    ORDER BY id DESC LIMIT ?" +
+                    ") h " +
+                    "INNER JOIN accounts sa ON sa.id = h.sender_account_id INNER JOIN users su ON su.id = sa.user_id " +
+                    "INNER JOIN accounts ra ON ra.id = h.receiver_account_id INNER JOIN users ru ON ru.id = ra.user_id " +
+                    "ORDER BY h.id DESC";
+            try (Connection connection = connectionPool.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(query)) {
+                statement.setLong(1, identity.getAccountId());
+                statement.setLong(2, cursor);
+                statement.setInt(3, limit);
+                statement.setLong(4, identity.getAccountId());
+                statement.setLong(5, cursor);
+                statement.setInt(6, limit);
+                statement.setInt(7, limit);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    List<Transaction> transactions = new ArrayList<>(limit);
+                    while (resultSet.next()) {
+                        transactions.add(new Transaction(
+                                resultSet.getLong("id"),
+                                resultSet.getString("sender"),
+                                resultSet.getString("receiver"),
+                                resultSet.getLong("amount"),
+                                resultSet.getTimestamp("created_at").toInstant()
+                        ));
+                    }
+                    return transactions;
+                }
+            } catch (SQLException e) {
+                log.error("Error occurred while retrieving transactions from database: {}", e.getMessage());
+                throw new RuntimeSqlException("Error occurred while retrieving transactions from database: " + e.getMessage());
+            }
+        } finally {
+            pageLatency.recordSince(start);
+        }
+    }
+
+    /**
+     * pgjdbc reads the result through a server-side cursor, fetch size rows at a time, only with autocommit off.
+     * Both directions are merged in id order from the account indexes, so the database does not sort the history.
+     * Not run through the transaction runner: rows already handed to the consumer can not be taken back by a retry.
+     */
+    @Override
+    public void streamByUsername(String username, TransactionConsumer consumer) throws IOException {
+        AccountIdentity identity = identityCache.get(username).orElseThrow(
+                () -> new UserNotFoundException("User " + username + " not found or does not have an account"));
+
+        String query = "SELECT h.id, h.amount, h.created_at, su.username AS sender, ru.username AS receiver FROM (" +
+                "    SELECT id, sender_account_id, receiver_account_id, amount, created_at FROM transactions " +
+                "    WHERE sender_account_id = ?" +
+                "    UNION ALL " +
+                "    SELECT id, sender_account_id, receiver_account_id, amount, created_at FROM transactions " +
+                "    WHERE receiver_account_id = ?" +
+                "    ORDER BY id" +
+                ") h " +
+                "INNER JOIN accounts sa ON sa.id = h.sender_account_id INNER JOIN users su ON su.id = sa.user_id " +
+                "INNER JOIN accounts ra ON ra.id = h.receiver_account_id INNER JOIN users ru ON ru.id = ra.user_id " +
+                "ORDER BY h.id";
+        try (Connection connection = connectionPool.getConnection()) {
+            connection.setAutoCommit(false);
+            connection.setReadOnly(true);
+            try (PreparedStatement statement = connection.prepareStatement(query)) {
+                statement.setFetchSize(exportFetchSize);
+                statement.setLong(1, identity.getAccountId());
+                statement.setLong(2, identity.getAccountId());
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        consumer.accept(new Transaction(
+                                resultSet.getLong("id"),
+                                resultSet.getString("sender"),
+                                resultSet.getString("receiver"),
+                                resultSet.getLong("amount"),
+                                resultSet.getTimestamp("created_at").toInstant()
+                        ));
+                    }
+                }
+            } finally {
+                //Read only, ending the transaction releases the cursor whether the export completed or not
+                connection.rollback();
+                connection.setReadOnly(false);
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            log.error("Error occurred while exporting transactions from database: {}", e.getMessage());
+            throw new RuntimeSqlException("Error occurred while exporting transactions from database: " + e.getMessage());
+        }
+    }
+}
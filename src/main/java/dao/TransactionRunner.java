@@ -0,0 +1,120 @@
+package dao;
+
+import data.ConnectionPool;
+import exception.RuntimeSqlException;
+import lombok.extern.slf4j.Slf4j;
+import metrics.Metrics;
+import utils.PropertiesLoader;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs a unit of work in a transaction on a pooled connection.
+ * Serialization failures and deadlocks are retried with jittered exponential backoff,
+ * any other failure is rolled back and rethrown. Connection state is restored before it returns to the pool.
+ */
+@Slf4j
+public class TransactionRunner {
+    private static final String SERIALIZATION_FAILURE = "40001";
+    private static final String DEADLOCK_DETECTED = "40P01";
+
+    @FunctionalInterface
+    public interface TransactionWork<T> {
+        T execute(Connection connection) throws SQLException;
+    }
+
+    private final ConnectionPool connectionPool;
+    private final int maxRetries;
+    private final long baseBackoffNanos;
+    private final long maxBackoffNanos;
+    private final LongAdder retries;
+    private final LongAdder aborts;
+
+    public TransactionRunner(ConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+
+        final Properties dbProperties = PropertiesLoader.load("/db.properties");
+        maxRetries = Integer.parseInt(dbProperties.getProperty("transaction.retry.max-retries", "5"));
+        baseBackoffNanos = Duration.parse(dbProperties.getProperty("transaction.retry.backoff.base", "PT0.005S")).toNanos();
+        maxBackoffNanos = Duration.parse(dbProperties.getProperty("transaction.retry.backoff.max", "PT0.2S")).toNanos();
+        retries = Metrics.counter("db_transaction_retries_total", "Transactions retried after a serialization failure or deadlock");
+        aborts = Metrics.counter("db_transaction_aborts_total", "Transactions given up after the last retry");
+    }
+
+    public <T> T run(int isolationLevel, TransactionWork<T> work) {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return runOnce(isolationLevel, work);
+            } catch (SQLException e) {
+                if (!isRetryable(e)) {
+                    log.error("Error occurred while executing transaction: {}", e.getMessage());
+                    throw new RuntimeSqlException("Error occurred while executing transaction: " + e.getMessage());
+                }
+                if (attempt >= maxRetries) {
+                    aborts.increment();
+                    log.warn("Transaction aborted after {} retries: {}", attempt, e.getMessage());
+                    throw new RuntimeSqlException("Transaction aborted due to concurrent updates, try again later");
+                }
+                retries.increment();
+                log.debug("Retrying transaction after {}: {}", e.getSQLState(), e.getMessage());
+                backoff(attempt);
+            }
+        }
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    public long getAborts() {
+        return aborts.sum();
+    }
+
+    private <T> T runOnce(int isolationLevel, TransactionWork<T> work) throws SQLException {
+        try (Connection connection = connectionPool.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            int isolation = connection.getTransactionIsolation();
+            try {
+                connection.setAutoCommit(false);
+                connection.setTransactionIsolation(isolationLevel);
+                T result = work.execute(connection);
+                connection.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                rollback(connection);
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+                connection.setTransactionIsolation(isolation);
+            }
+        }
+    }
+
+    private void rollback(Connection connection) {
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            log.error("Error occurred while rolling back transaction: {}", e.getMessage());
+        }
+    }
+
+    private boolean isRetryable(SQLException e) {
+        return SERIALIZATION_FAILURE.equals(e.getSQLState()) || DEADLOCK_DETECTED.equals(e.getSQLState());
+    }
+
+    private void backoff(int attempt) {
+        long ceiling = Math.min(maxBackoffNanos, baseBackoffNanos << Math.min(attempt, 20));
+        long sleepNanos = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        try {
+            Thread.sleep(sleepNanos / 1_000_000, (int) (sleepNanos % 1_000_000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeSqlException("Transaction retry was interrupted");
+        }
+    }
+}
@@ -2,41 +2,127 @@ package data;
 
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
 import lombok.extern.slf4j.Slf4j;
+import metrics.LatencyHistogram;
+import metrics.Metrics;
+import utils.PropertiesLoader;
 
-import java.io.IOException;
-import java.io.InputStream;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.time.Duration;
 import java.util.Properties;
 
 @Slf4j
 public class ConnectionPool {
+    private static final String BLOCK_UNTIL_FILLED = "com.zaxxer.hikari.blockUntilFilled";
+
     private final HikariDataSource dataSource;
+    private final LatencyHistogram acquireLatency;
 
     public ConnectionPool() {
-        final Properties dbProperties = new Properties();
-        try (InputStream in = getClass().getResourceAsStream("/db.properties")) {
-            dbProperties.load(in);
-        } catch (IOException e) {
-            log.error("Error occurred while reading database properties file: " + e.getMessage());
-        }
+        final Properties dbProperties = PropertiesLoader.load("/db.properties");
 
         final HikariConfig config = new HikariConfig();
+        config.setPoolName("db-pool");
         config.setDriverClassName(dbProperties.getProperty("datasource.driver"));
         config.setJdbcUrl(dbProperties.getProperty("datasource.url"));
         config.setUsername(dbProperties.getProperty("datasource.username"));
         config.setPassword(dbProperties.getProperty("datasource.password"));
-        config.setMaximumPoolSize(50);
-        dataSource = new HikariDataSource(config);
+        config.setMaximumPoolSize(Integer.parseInt(dbProperties.getProperty("datasource.pool.maximum-size", "50")));
+        config.setMinimumIdle(Integer.parseInt(dbProperties.getProperty("datasource.pool.minimum-idle", "50")));
+        config.setConnectionTimeout(duration(dbProperties, "datasource.pool.connection-timeout", "PT30S"));
+        config.setIdleTimeout(duration(dbProperties, "datasource.pool.idle-timeout", "PT10M"));
+        config.setMaxLifetime(duration(dbProperties, "datasource.pool.max-lifetime", "PT30M"));
+        config.setLeakDetectionThreshold(duration(dbProperties, "datasource.pool.leak-detection-threshold", "PT0S"));
+
+        //pgjdbc switches a statement to a server-side prepared statement after prepareThreshold executions
+        //and keeps up to cache-queries of them per connection
+        config.addDataSourceProperty("prepareThreshold",
+                dbProperties.getProperty("datasource.pgjdbc.prepare-threshold", "5"));
+        config.addDataSourceProperty("preparedStatementCacheQueries",
+                dbProperties.getProperty("datasource.pgjdbc.statement-cache.queries", "256"));
+        config.addDataSourceProperty("preparedStatementCacheSizeMiB",
+                dbProperties.getProperty("datasource.pgjdbc.statement-cache.size-mib", "5"));
+        //Hikari opens connections one at a time in the background. Warm-up connections are opened before the pool
+        //is returned instead, in parallel on one thread per processor, up to 16. The rest up to minimum-idle are
+        //opened when requests need them or by the next pool housekeeping
+        final int minimumIdle = config.getMinimumIdle();
+        final int warmup = Math.min(Integer.parseInt(dbProperties.getProperty("datasource.pool.warmup", "8")), minimumIdle);
+        //blockUntilFilled is a JVM-wide switch that Hikari reads when the pool is created, it is put back right after
+        final String blockUntilFilled = System.getProperty(BLOCK_UNTIL_FILLED);
+        if (warmup > 0) {
+            System.setProperty(BLOCK_UNTIL_FILLED, "true");
+            config.setInitializationFailTimeout(config.getConnectionTimeout());
+            config.setMinimumIdle(warmup);
+        }
+        long start = System.nanoTime();
+        try {
+            dataSource = new HikariDataSource(config);
+        } finally {
+            if (blockUntilFilled == null) {
+                System.clearProperty(BLOCK_UNTIL_FILLED);
+            } else {
+                System.setProperty(BLOCK_UNTIL_FILLED, blockUntilFilled);
+            }
+        }
+        dataSource.getHikariConfigMXBean().setMinimumIdle(minimumIdle);
+        acquireLatency = Metrics.timer("db_pool_acquire_duration_seconds", "Time to get a connection from the pool");
+        Metrics.gauge("db_pool_active_connections", "Connections in use", this::getActiveConnections);
+        Metrics.gauge("db_pool_idle_connections", "Connections waiting in the pool", this::getIdleConnections);
+        Metrics.gauge("db_pool_pending_threads", "Threads waiting for a connection", this::getPendingThreads);
+        Metrics.gauge("db_pool_max_connections", "Maximum pool size", this::getMaximumPoolSize);
+        log.info("Connection pool started with {} of up to {} connections in {} ms", pool().getTotalConnections(),
+                config.getMaximumPoolSize(), (System.nanoTime() - start) / 1_000_000);
     }
 
     public Connection getConnection() {
+        long start = System.nanoTime();
         try {
             return dataSource.getConnection();
         } catch (SQLException e) {
             log.error("Error occurred while issuing connection from pool: " + e.getMessage());
             throw new RuntimeException(e);
+        } finally {
+            acquireLatency.recordSince(start);
         }
     }
+
+    public int getActiveConnections() {
+        return pool().getActiveConnections();
+    }
+
+    public int getIdleConnections() {
+        return pool().getIdleConnections();
+    }
+
+    /**
+     * @return threads waiting for a connection
+     */
+    public int getPendingThreads() {
+        return pool().getThreadsAwaitingConnection();
+    }
+
+    public int getMaximumPoolSize() {
+        return dataSource.getMaximumPoolSize();
+    }
+
+    public long getAcquisitions() {
+        return acquireLatency.getCount();
+    }
+
+    /**
+     * @return total time spent waiting for connections, divided by {@link #getAcquisitions()} gives the average
+     */
+    public long getAcquireNanos() {
+        return acquireLatency.getSumNanos();
+    }
+
+    private HikariPoolMXBean pool() {
+        return dataSource.getHikariPoolMXBean();
+    }
+
+    private static long duration(Properties properties, String key, String defaultValue) {
+        return Duration.parse(properties.getProperty(key, defaultValue)).toMillis();
+    }
 }
@@ -5,22 +5,30 @@ import liquibase.command.core.UpdateCommandStep;
 import liquibase.command.core.helpers.DbUrlConnectionArgumentsCommandStep;
 import liquibase.exception.CommandExecutionException;
 import lombok.extern.slf4j.Slf4j;
+import utils.PropertiesLoader;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
 import java.util.Properties;
+import java.util.Set;
 
 @Slf4j
 public class LiquibaseMigration {
+    private static final String SELECT_APPLIED_CHANGE_SETS = "SELECT filename, id, author FROM databasechangelog";
+
     private final Properties dbProperties;
 
     public LiquibaseMigration() {
-        dbProperties = new Properties();
-        try (InputStream in = getClass().getResourceAsStream("/db.properties")) {
-            dbProperties.load(in);
-        } catch (IOException e) {
-            log.error("Error occurred while reading database properties file: " + e.getMessage());
-        }
+        dbProperties = PropertiesLoader.load("/db.properties");
     }
 
     public void runMigration() {
@@ -28,6 +36,10 @@ public class LiquibaseMigration {
             log.info("Migration skipped due to configuration");
             return;
         }
+        if (Boolean.parseBoolean(dbProperties.getProperty("liquibase.skip-if-current", "false")) && isCurrent()) {
+            log.info("Every change set of the changelog is already applied, migration skipped");
+            return;
+        }
         try {
             CommandScope commandScope = new CommandScope(UpdateCommandStep.COMMAND_NAME);
 
@@ -42,4 +54,140 @@ public class LiquibaseMigration {
             log.error("Error occurred while running database migration: " + e.getMessage());
         }
     }
+
+    /**
+     * Compares the change sets declared in the changelog files with the rows of DATABASECHANGELOG, so a start
+     * without new change sets does not load Liquibase at all.
+     * Anything the line reader does not understand, and any database error, makes Liquibase run as before.
+     * Change sets are matched by file, id and author, not by checksum, so edits to change sets that were already
+     * applied are only noticed by Liquibase itself, which is why liquibase.skip-if-current is off by default.
+     */
+    private boolean isCurrent() {
+        Set<String> declared = new HashSet<>();
+        try {
+            if (!readChangeSets(dbProperties.getProperty("liquibase.changelog"), declared)) {
+                return false;
+            }
+        } catch (IOException e) {
+            log.warn("Changelog could not be read before migration: {}", e.getMessage());
+            return false;
+        }
+
+        Set<String> applied = new HashSet<>();
+        try (Connection connection = DriverManager.getConnection(dbProperties.getProperty("datasource.url"),
+                dbProperties.getProperty("datasource.username"), dbProperties.getProperty("datasource.password"));
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(SELECT_APPLIED_CHANGE_SETS)) {
+            while (resultSet.next()) {
+                applied.add(changeSetKey(resultSet.getString("filename"), resultSet.getString("id"),
+                        resultSet.getString("author")));
+            }
+        } catch (SQLException e) {
+            //DATABASECHANGELOG does not exist before the first migration
+            log.debug("Applied change sets could not be read: {}", e.getMessage());
+            return false;
+        }
+        return applied.containsAll(declared);
+    }
+
+    /**
+     * Collects filename::id::author of every change set of a YAML changelog and the files it includes.
+     * @return false if the changelog uses something other than plain includes and change sets, or change sets
+     * that run always or on change, which Liquibase has to decide on
+     */
+    private boolean readChangeSets(String file, Set<String> changeSets) throws IOException {
+        String path = file.startsWith("/") ? file.substring(1) : file;
+        try (InputStream in = LiquibaseMigration.class.getResourceAsStream("/" + path)) {
+            if (in == null) {
+                throw new IOException(file + " not found");
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String id = null;
+            String author = null;
+            int entryIndent = -1;
+            int keyIndent = -1;
+            boolean inChangeSet = false;
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                    continue;
+                }
+                int indent = line.indexOf(trimmed);
+                if (trimmed.startsWith("- ")) {
+                    String entry = trimmed.substring(2).trim();
+                    if (entry.equals("changeSet:")) {
+                        if (inChangeSet && !addChangeSet(changeSets, path, id, author)) {
+                            return false;
+                        }
+                        inChangeSet = true;
+                        entryIndent = indent;
+                        id = null;
+                        author = null;
+                        keyIndent = -1;
+                        continue;
+                    }
+                    if (entry.equals("include:")) {
+                        if (inChangeSet && !addChangeSet(changeSets, path, id, author)) {
+                            return false;
+                        }
+                        inChangeSet = false;
+                        continue;
+                    }
+                    //Entries below a change set are its changes, other entries of the changelog are not known
+                    if (!inChangeSet || indent <= entryIndent) {
+                        return false;
+                    }
+                    continue;
+                }
+
+                if (!inChangeSet) {
+                    if (trimmed.startsWith("file:")) {
+                        if (!readChangeSets(value(trimmed), changeSets)) {
+                            return false;
+                        }
+                    } else if (!trimmed.equals("databaseChangeLog:")) {
+                        return false;
+                    }
+                    continue;
+                }
+                //Only keys of the change set itself count, not keys of its changes
+                if (keyIndent < 0) {
+                    keyIndent = indent;
+                }
+                if (indent != keyIndent) {
+                    continue;
+                }
+                if (trimmed.startsWith("id:")) {
+                    id = value(trimmed);
+                } else if (trimmed.startsWith("author:")) {
+                    author = value(trimmed);
+                } else if (trimmed.startsWith("runAlways:") || trimmed.startsWith("runOnChange:")) {
+                    if (Boolean.parseBoolean(value(trimmed))) {
+                        return false;
+                    }
+                }
+            }
+            return !inChangeSet || addChangeSet(changeSets, path, id, author);
+        }
+    }
+
+    private static boolean addChangeSet(Set<String> changeSets, String file, String id, String author) {
+        if (id == null || author == null) {
+            return false;
+        }
+        changeSets.add(changeSetKey(file, id, author));
+        return true;
+    }
+
+    private static String changeSetKey(String file, String id, String author) {
+        return file + "::" + id + "::" + author;
+    }
+
+    private static String value(String line) {
+        String value = line.substring(line.indexOf(':') + 1).trim();
+        if (value.length() >= 2 && (value.startsWith("\"") || value.startsWith("'"))) {
+            value = value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
 }
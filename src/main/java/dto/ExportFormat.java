@@ -0,0 +1,28 @@
+package dto;
+
+import lombok.Getter;
+
+import java.util.Locale;
+
+@Getter
+public enum ExportFormat {
+    NDJSON("application/x-ndjson"),
+    CSV("text/csv; charset=utf-8");
+
+    private final String contentType;
+
+    ExportFormat(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public static ExportFormat of(String name) {
+        if (name == null || name.isEmpty()) {
+            return NDJSON;
+        }
+        try {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown export format: " + name);
+        }
+    }
+}
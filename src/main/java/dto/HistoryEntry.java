@@ -0,0 +1,18 @@
+package dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.math.BigDecimal;
+
+@Getter
+@Setter
+@AllArgsConstructor
+public class HistoryEntry {
+    private Long id;
+    private String direction;
+    private String counterparty;
+    private BigDecimal amount;
+    private String createdAt;
+}
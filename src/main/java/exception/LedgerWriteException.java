@@ -0,0 +1,7 @@
+package exception;
+
+public class LedgerWriteException extends RuntimeException {
+    public LedgerWriteException(String message) {
+        super(message);
+    }
+}
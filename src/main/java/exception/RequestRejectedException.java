@@ -0,0 +1,14 @@
+package exception;
+
+public class RequestRejectedException extends RuntimeException {
+    private final int httpStatus;
+
+    public RequestRejectedException(int httpStatus, String message) {
+        super(message);
+        this.httpStatus = httpStatus;
+    }
+
+    public int getHttpStatus() {
+        return httpStatus;
+    }
+}
@@ -0,0 +1,323 @@
+package ledger;
+
+import exception.InsufficientBalanceException;
+import exception.LedgerWriteException;
+import exception.ServiceOverloadedException;
+import exception.UserNotFoundException;
+import lombok.extern.slf4j.Slf4j;
+import metrics.Metrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Authoritative in-memory account balances. A single writer thread applies transfers in batches,
+ * appends them to the write-ahead log and syncs the log once per batch before acknowledging.
+ * Readers look balances up concurrently without blocking the writer.
+ * On start the latest snapshot is loaded and the log written after it is replayed.
+ */
+@Slf4j
+public class Ledger {
+    private static final long MISSING = Long.MIN_VALUE;
+
+    private final LedgerConfig config;
+    private final LedgerExporter exporter;
+    private final WriteAheadLog wal;
+    private final SnapshotStore snapshots;
+    private final LongLongMap balances;
+    private final StampedLock lock;
+    private final BlockingQueue<Command> commands;
+    private final ExecutorService snapshotExecutor;
+    private final Thread writer;
+    private final LongAdder transfers;
+    private final long recoveredSeq;
+    private long nextSeq;
+    private long lastSnapshotSeq;
+    private long lastSnapshotNanos;
+    private volatile boolean running;
+
+    public Ledger(LedgerConfig config, LedgerExporter exporter) throws IOException {
+        this.config = config;
+        this.exporter = exporter;
+        wal = new WriteAheadLog(config.getDirectory(), config.getSegmentSize());
+        snapshots = new SnapshotStore(config.getDirectory());
+        lock = new StampedLock();
+        commands = new ArrayBlockingQueue<>(config.getQueueSize());
+        transfers = Metrics.counter("ledger_transfers_total", "Transfers applied by the ledger");
+        Metrics.gauge("ledger_accounts", "Accounts loaded into the ledger", this::getSize);
+        Metrics.gauge("ledger_queue_depth", "Commands waiting for the ledger writer", this::getQueueDepth);
+
+        SnapshotStore.Snapshot snapshot = snapshots.loadLatest(config.getExpectedAccounts());
+        balances = snapshot != null ? snapshot.getBalances() : new LongLongMap(config.getExpectedAccounts());
+        lastSnapshotSeq = snapshot != null ? snapshot.getSeq() : 0;
+        long lastSeq = wal.replay(entry -> {
+            if (entry.getSeq() > lastSnapshotSeq) {
+                balances.put(entry.getSenderAccountId(), entry.getSenderBalance());
+                balances.put(entry.getReceiverAccountId(), entry.getReceiverBalance());
+            }
+            exporter.offer(entry);
+        });
+        recoveredSeq = Math.max(lastSeq, lastSnapshotSeq);
+        nextSeq = recoveredSeq + 1;
+        wal.open(nextSeq);
+        lastSnapshotNanos = System.nanoTime();
+        log.info("Ledger recovered {} accounts, snapshot at record {}, log up to record {}",
+                balances.size(), lastSnapshotSeq, nextSeq - 1);
+
+        snapshotExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ledger-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        running = true;
+        writer = new Thread(this::run, "ledger-writer");
+        writer.start();
+    }
+
+    /**
+     * @return balance of a loaded account or null if the account is not loaded yet
+     */
+    public Long getBalance(long accountId) {
+        long stamp = lock.tryOptimisticRead();
+        long balance = balances.get(accountId, MISSING);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                balance = balances.get(accountId, MISSING);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return balance != MISSING ? balance : null;
+    }
+
+    /**
+     * Hands the balance read from the database over to the ledger, unless the account is loaded already.
+     * Loads are queued with transfers, so a transfer submitted after a load always sees the account.
+     */
+    public void load(long accountId, long balance) {
+        submit(new Command(accountId, 0, balance, 0, null));
+    }
+
+    /**
+     * @return future completed with the sender balance once the transfer is durable
+     */
+    public CompletableFuture<Long> transfer(long senderAccountId, long receiverAccountId, long amount) {
+        return transfer(senderAccountId, receiverAccountId, amount, 0);
+    }
+
+    /**
+     * @param claimId claim of the idempotency key the transfer is made with, logged with the transfer
+     * @return future completed with the sender balance once the transfer is durable
+     */
+    public CompletableFuture<Long> transfer(long senderAccountId, long receiverAccountId, long amount, long claimId) {
+        CompletableFuture<Long> result = new CompletableFuture<>();
+        submit(new Command(senderAccountId, receiverAccountId, amount, claimId, result));
+        return result;
+    }
+
+    public int getSize() {
+        return balances.size();
+    }
+
+    /**
+     * @return sequence number of the last entry recovered on start
+     */
+    public long getRecoveredSeq() {
+        return recoveredSeq;
+    }
+
+    public int getQueueDepth() {
+        return commands.size();
+    }
+
+    public long getTransfers() {
+        return transfers.sum();
+    }
+
+    /**
+     * Applies the transfers already queued, syncs the log and stops the writer.
+     */
+    public void close() {
+        running = false;
+        //Entries the exporter has no room for any more are exported from the log after a restart
+        exporter.close();
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        snapshotExecutor.shutdown();
+        try {
+            wal.close();
+        } catch (IOException e) {
+            log.error("Error occurred while closing ledger write-ahead log: {}", e.getMessage());
+        }
+    }
+
+    private void submit(Command command) {
+        if (!running || !commands.offer(command)) {
+            throw new ServiceOverloadedException("Too many pending transfers, try again later");
+        }
+    }
+
+    private void run() {
+        List<Command> batch = new ArrayList<>(config.getMaxBatchSize());
+        List<LedgerEntry> entries = new ArrayList<>(config.getMaxBatchSize());
+        while (running || !commands.isEmpty()) {
+            try {
+                Command first = commands.poll(100, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    commands.drainTo(batch, config.getMaxBatchSize() - 1);
+                    apply(batch, entries);
+                }
+                maybeSnapshot();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Unexpected error in ledger writer: {}", e.getMessage());
+            } finally {
+                for (Command command : batch) {
+                    if (command.result != null && !command.result.isDone()) {
+                        command.result.completeExceptionally(new LedgerWriteException("Transfer outcome is unknown"));
+                    }
+                }
+                batch.clear();
+                entries.clear();
+            }
+        }
+    }
+
+    private void apply(List<Command> batch, List<LedgerEntry> entries) {
+        long stamp = lock.writeLock();
+        try {
+            for (Command command : batch) {
+                if (command.result == null) {
+                    if (!balances.containsKey(command.senderAccountId)) {
+                        balances.put(command.senderAccountId, command.amount);
+                    }
+                    continue;
+                }
+                try {
+                    command.entry = applyTransfer(command);
+                    entries.add(command.entry);
+                } catch (RuntimeException e) {
+                    command.failure = e;
+                }
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+
+        RuntimeException syncFailure = null;
+        if (!entries.isEmpty() && config.isFsync()) {
+            try {
+                wal.sync();
+            } catch (RuntimeException e) {
+                log.error("Error occurred while syncing ledger write-ahead log: {}", e.getMessage());
+                syncFailure = new LedgerWriteException("Transfer outcome is unknown, ledger could not be synced");
+            }
+        }
+        for (Command command : batch) {
+            if (command.result == null) {
+                continue;
+            }
+            if (command.failure != null) {
+                command.result.completeExceptionally(command.failure);
+            } else if (syncFailure != null) {
+                command.result.completeExceptionally(syncFailure);
+            } else {
+                command.result.complete(command.entry.getSenderBalance());
+            }
+        }
+        transfers.add(entries.size());
+        entries.forEach(exporter::offer);
+    }
+
+    private LedgerEntry applyTransfer(Command command) {
+        long senderBalance = balances.get(command.senderAccountId, MISSING);
+        long receiverBalance = balances.get(command.receiverAccountId, MISSING);
+        if (senderBalance == MISSING) {
+            throw new UserNotFoundException("Account id " + command.senderAccountId + " not found");
+        }
+        if (receiverBalance == MISSING) {
+            throw new UserNotFoundException("Account id " + command.receiverAccountId + " not found");
+        }
+        if (senderBalance < command.amount) {
+            throw new InsufficientBalanceException("Account id " + command.senderAccountId + " has insufficient balance");
+        }
+
+        //Logged before the balances change, a transfer that could not be logged is not applied
+        LedgerEntry entry = new LedgerEntry(nextSeq, command.senderAccountId, command.receiverAccountId, command.amount,
+                senderBalance - command.amount, receiverBalance + command.amount, System.currentTimeMillis(),
+                command.claimId);
+        try {
+            wal.append(entry);
+        } catch (IOException e) {
+            log.error("Error occurred while appending to ledger write-ahead log: {}", e.getMessage());
+            throw new LedgerWriteException("Transfer could not be written to the ledger");
+        }
+        nextSeq++;
+        balances.put(command.senderAccountId, entry.getSenderBalance());
+        balances.put(command.receiverAccountId, entry.getReceiverBalance());
+        return entry;
+    }
+
+    private void maybeSnapshot() {
+        long lastSeq = nextSeq - 1;
+        if (lastSeq == lastSnapshotSeq || System.nanoTime() - lastSnapshotNanos < config.getSnapshotInterval().toNanos()) {
+            return;
+        }
+        //Only the writer changes balances, so the copy is consistent without taking the lock
+        int count = balances.size();
+        long[] accountIds = new long[count];
+        long[] copiedBalances = new long[count];
+        int[] index = new int[1];
+        balances.forEach((accountId, balance) -> {
+            accountIds[index[0]] = accountId;
+            copiedBalances[index[0]++] = balance;
+        });
+        wal.sync();
+        lastSnapshotSeq = lastSeq;
+        lastSnapshotNanos = System.nanoTime();
+
+        snapshotExecutor.execute(() -> {
+            try {
+                snapshots.write(lastSeq, accountIds, copiedBalances, count);
+                wal.deleteSegmentsUpTo(Math.min(lastSeq, exporter.getExportedSeq()));
+            } catch (IOException e) {
+                log.error("Error occurred while writing ledger snapshot: {}", e.getMessage());
+            }
+        });
+    }
+
+    private static final class Command {
+        private final long senderAccountId;
+        private final long receiverAccountId;
+        private final long amount;
+        private final long claimId;
+        private final CompletableFuture<Long> result;
+        private LedgerEntry entry;
+        private RuntimeException failure;
+
+        private Command(long senderAccountId, long receiverAccountId, long amount, long claimId,
+                        CompletableFuture<Long> result) {
+            this.senderAccountId = senderAccountId;
+            this.receiverAccountId = receiverAccountId;
+            this.amount = amount;
+            this.claimId = claimId;
+            this.result = result;
+        }
+    }
+}
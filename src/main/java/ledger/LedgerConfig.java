@@ -0,0 +1,43 @@
+package ledger;
+
+import lombok.Getter;
+import utils.PropertiesLoader;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Properties;
+
+@Getter
+public class LedgerConfig {
+    private final boolean enabled;
+    private final Path directory;
+    private final int expectedAccounts;
+    private final int queueSize;
+    private final int maxBatchSize;
+    private final int segmentSize;
+    private final boolean fsync;
+    private final Duration snapshotInterval;
+    private final int exportBatchSize;
+    private final int exportQueueSize;
+    private final int exportMaxRetries;
+    private final Duration exportRetryDelay;
+    private final Duration exportMaxRetryDelay;
+
+    public LedgerConfig() {
+        Properties ledgerProperties = PropertiesLoader.load("/ledger.properties");
+
+        enabled = Boolean.parseBoolean(ledgerProperties.getProperty("ledger.enabled", "false"));
+        directory = Path.of(ledgerProperties.getProperty("ledger.directory", "data/ledger"));
+        expectedAccounts = Integer.parseInt(ledgerProperties.getProperty("ledger.accounts.expected", "65536"));
+        queueSize = Integer.parseInt(ledgerProperties.getProperty("ledger.queue", "65536"));
+        maxBatchSize = Integer.parseInt(ledgerProperties.getProperty("ledger.batch.max-size", "1024"));
+        segmentSize = Integer.parseInt(ledgerProperties.getProperty("ledger.wal.segment-size", "67108864"));
+        fsync = Boolean.parseBoolean(ledgerProperties.getProperty("ledger.wal.fsync", "true"));
+        snapshotInterval = Duration.parse(ledgerProperties.getProperty("ledger.snapshot.interval", "PT5M"));
+        exportBatchSize = Integer.parseInt(ledgerProperties.getProperty("ledger.export.batch-size", "500"));
+        exportQueueSize = Integer.parseInt(ledgerProperties.getProperty("ledger.export.queue", "65536"));
+        exportMaxRetries = Integer.parseInt(ledgerProperties.getProperty("ledger.export.max-retries", "10"));
+        exportRetryDelay = Duration.parse(ledgerProperties.getProperty("ledger.export.retry-delay", "PT1S"));
+        exportMaxRetryDelay = Duration.parse(ledgerProperties.getProperty("ledger.export.retry-delay.max", "PT1M"));
+    }
+}
@@ -0,0 +1,22 @@
+package ledger;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Applied transfer as it is written to the log. Balances after the transfer are recorded
+ * instead of deltas, so replaying an entry more than once leaves the same state.
+ * A transfer made with an idempotency key carries the id of the key's claim, 0 otherwise.
+ */
+@Getter
+@AllArgsConstructor
+public class LedgerEntry {
+    private final long seq;
+    private final long senderAccountId;
+    private final long receiverAccountId;
+    private final long amount;
+    private final long senderBalance;
+    private final long receiverBalance;
+    private final long timestamp;
+    private final long claimId;
+}
@@ -0,0 +1,270 @@
+package ledger;
+
+import dao.TransactionRunner;
+import lombok.extern.slf4j.Slf4j;
+import metrics.Metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Copies ledger entries to the database in the background: a row in transactions per entry,
+ * the latest balance of every account involved and the balance of the idempotency key claimed for an entry,
+ * so a key is completed with its transfer even if the service stopped before completing it.
+ * Entries are exported in log order and identified by ledger_seq, so exporting an entry again after a restart
+ * changes nothing.
+ * The backlog is bounded: once it is full the ledger writer waits, so transfers are refused
+ * instead of memory growing while the database is down. Entries stay in the write-ahead log until exported.
+ * A batch failing after the last retry is exported entry by entry, entries failing again are written
+ * to the dead letter file and skipped, so one bad row does not stop the export.
+ */
+@Slf4j
+public class LedgerExporter {
+    private static final long OFFER_WAIT_MILLIS = 100;
+    private static final String DEAD_LETTER_FILE = "export-dead-letter.log";
+
+    private final TransactionRunner transactionRunner;
+    private final int batchSize;
+    private final int maxRetries;
+    private final long retryDelayMillis;
+    private final long maxRetryDelayMillis;
+    private final Path deadLetterFile;
+    private final BlockingQueue<LedgerEntry> queue;
+    private final LongAdder deadLetters;
+    private final Map<CompletableFuture<Void>, Long> waiters;
+    private volatile long exportedSeq;
+    private volatile boolean closed;
+
+    public LedgerExporter(TransactionRunner transactionRunner, LedgerConfig config) {
+        this(transactionRunner, config, transactionRunner.run(Connection.TRANSACTION_READ_COMMITTED, connection -> {
+            try (PreparedStatement statement = connection.prepareStatement("SELECT COALESCE(MAX(ledger_seq), 0) FROM transactions");
+                 ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                return resultSet.getLong(1);
+            }
+        }));
+    }
+
+    /**
+     * @param exportedSeq last entry already in the database, later entries are queued by {@link #offer(LedgerEntry)}
+     */
+    LedgerExporter(TransactionRunner transactionRunner, LedgerConfig config, long exportedSeq) {
+        this.transactionRunner = transactionRunner;
+        this.exportedSeq = exportedSeq;
+        batchSize = config.getExportBatchSize();
+        maxRetries = config.getExportMaxRetries();
+        retryDelayMillis = config.getExportRetryDelay().toMillis();
+        maxRetryDelayMillis = config.getExportMaxRetryDelay().toMillis();
+        deadLetterFile = config.getDirectory().resolve(DEAD_LETTER_FILE);
+        queue = new ArrayBlockingQueue<>(config.getExportQueueSize());
+        waiters = new ConcurrentHashMap<>();
+        deadLetters = Metrics.counter("ledger_export_dead_letters_total",
+                "Ledger entries given up after the last export retry and written to the dead letter file");
+        Metrics.gauge("ledger_export_backlog", "Ledger entries waiting to be exported to the database", this::getBacklog);
+    }
+
+    public void start() {
+        Thread thread = new Thread(this::run, "ledger-export");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queues an entry that is not in the database yet, waiting while the backlog is full.
+     * After {@link #close()} entries are not queued any more, they are exported from the log after a restart.
+     */
+    public void offer(LedgerEntry entry) {
+        if (entry.getSeq() <= exportedSeq) {
+            return;
+        }
+        try {
+            while (!closed && !queue.offer(entry, OFFER_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                log.debug("Ledger export backlog is full, waiting for the database");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void close() {
+        closed = true;
+    }
+
+    /**
+     * @return future completed on the export thread once every entry up to the given one is in the database
+     */
+    public CompletableFuture<Void> whenExported(long seq) {
+        CompletableFuture<Void> exported = new CompletableFuture<>();
+        waiters.put(exported, seq);
+        completeWaiters();
+        return exported;
+    }
+
+    public long getExportedSeq() {
+        return exportedSeq;
+    }
+
+    public int getBacklog() {
+        return queue.size();
+    }
+
+    public long getDeadLetters() {
+        return deadLetters.sum();
+    }
+
+    private void run() {
+        List<LedgerEntry> batch = new ArrayList<>(batchSize);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, batchSize - 1);
+                if (!exportWithRetries(batch)) {
+                    for (LedgerEntry entry : batch) {
+                        if (!export(List.of(entry))) {
+                            deadLetter(entry);
+                        }
+                    }
+                }
+                exportedSeq = batch.get(batch.size() - 1).getSeq();
+                batch.clear();
+                completeWaiters();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Retries with the delay doubling up to its maximum, so a database outage of several minutes is waited out.
+     */
+    private boolean exportWithRetries(List<LedgerEntry> batch) throws InterruptedException {
+        long delayMillis = retryDelayMillis;
+        for (int attempt = 0; ; attempt++) {
+            if (export(batch)) {
+                return true;
+            }
+            if (attempt >= maxRetries) {
+                log.error("Export of {} ledger entries failed after {} retries, exporting them one by one",
+                        batch.size(), attempt);
+                return false;
+            }
+            Thread.sleep(delayMillis);
+            delayMillis = Math.min(delayMillis * 2, maxRetryDelayMillis);
+        }
+    }
+
+    private void completeWaiters() {
+        waiters.forEach((exported, seq) -> {
+            if (seq <= exportedSeq && waiters.remove(exported, seq)) {
+                exported.complete(null);
+            }
+        });
+    }
+
+    /**
+     * The transfer of a dead letter is applied, so its idempotency key is still completed on its own.
+     */
+    private void deadLetter(LedgerEntry entry) {
+        deadLetters.increment();
+        String line = String.format("seq=%d sender=%d receiver=%d amount=%d senderBalance=%d receiverBalance=%d timestamp=%d claim=%d%n",
+                entry.getSeq(), entry.getSenderAccountId(), entry.getReceiverAccountId(), entry.getAmount(),
+                entry.getSenderBalance(), entry.getReceiverBalance(), entry.getTimestamp(), entry.getClaimId());
+        if (entry.getClaimId() != 0) {
+            try {
+                transactionRunner.run(Connection.TRANSACTION_READ_COMMITTED, connection -> {
+                    completeClaims(connection, List.of(entry));
+                    return null;
+                });
+            } catch (RuntimeException e) {
+                log.error("Idempotency claim {} of ledger entry {} could not be completed: {}",
+                        entry.getClaimId(), entry.getSeq(), e.getMessage());
+            }
+        }
+        log.error("Ledger entry {} could not be exported and is written to {}", entry.getSeq(), deadLetterFile);
+        try (Writer out = Files.newBufferedWriter(deadLetterFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            out.write(line);
+        } catch (IOException e) {
+            log.error("Error occurred while writing ledger dead letter {}: {}", line.trim(), e.getMessage());
+        }
+    }
+
+    private boolean export(List<LedgerEntry> batch) {
+        Map<Long, Long> balances = new LinkedHashMap<>();
+        StringBuilder ledgerQuery = new StringBuilder(
+                "INSERT INTO transactions (sender_account_id, receiver_account_id, amount, ledger_seq, created_at) VALUES ");
+        for (int i = 0; i < batch.size(); i++) {
+            LedgerEntry entry = batch.get(i);
+            ledgerQuery.append(i == 0 ? "(?, ?, ?, ?, ?)" : ", (?, ?, ?, ?, ?)");
+            balances.put(entry.getSenderAccountId(), entry.getSenderBalance());
+            balances.put(entry.getReceiverAccountId(), entry.getReceiverBalance());
+        }
+        ledgerQuery.append(" ON CONFLICT (ledger_seq) DO NOTHING");
+
+        try {
+            transactionRunner.run(Connection.TRANSACTION_READ_COMMITTED, connection -> {
+                try (PreparedStatement ledgerStatement = connection.prepareStatement(ledgerQuery.toString())) {
+                    int index = 1;
+                    for (LedgerEntry entry : batch) {
+                        ledgerStatement.setLong(index++, entry.getSenderAccountId());
+                        ledgerStatement.setLong(index++, entry.getReceiverAccountId());
+                        ledgerStatement.setLong(index++, entry.getAmount());
+                        ledgerStatement.setLong(index++, entry.getSeq());
+                        ledgerStatement.setTimestamp(index++, new Timestamp(entry.getTimestamp()));
+                    }
+                    ledgerStatement.executeUpdate();
+                }
+                try (PreparedStatement balanceStatement = connection.prepareStatement("UPDATE accounts SET balance = ? WHERE id = ?")) {
+                    for (Map.Entry<Long, Long> balance : balances.entrySet()) {
+                        balanceStatement.setLong(1, balance.getValue());
+                        balanceStatement.setLong(2, balance.getKey());
+                        balanceStatement.addBatch();
+                    }
+                    balanceStatement.executeBatch();
+                }
+                completeClaims(connection, batch);
+                return null;
+            });
+            return true;
+        } catch (RuntimeException e) {
+            log.error("Error occurred while exporting {} ledger entries: {}", batch.size(), e.getMessage());
+            return false;
+        }
+    }
+
+    private static void completeClaims(Connection connection, List<LedgerEntry> batch) throws SQLException {
+        if (batch.stream().allMatch(entry -> entry.getClaimId() == 0)) {
+            return;
+        }
+        try (PreparedStatement claimStatement = connection.prepareStatement(
+                "UPDATE idempotency_keys SET balance = ? WHERE claim_id = ? AND balance IS NULL")) {
+            for (LedgerEntry entry : batch) {
+                if (entry.getClaimId() != 0) {
+                    claimStatement.setLong(1, entry.getSenderBalance());
+                    claimStatement.setLong(2, entry.getClaimId());
+                    claimStatement.addBatch();
+                }
+            }
+            claimStatement.executeBatch();
+        }
+    }
+}
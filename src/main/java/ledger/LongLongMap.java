@@ -0,0 +1,90 @@
+package ledger;
+
+/**
+ * Open addressing map of positive long keys to long values, without boxing.
+ * Keys and values are interleaved in one array, so a reader always sees a table of consistent size.
+ * Not thread safe, the ledger guards it with its lock.
+ */
+public class LongLongMap {
+    private static final long EMPTY = 0;
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(long key, long value);
+    }
+
+    private long[] table;
+    private int size;
+
+    public LongLongMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) << 1;
+        table = new long[capacity * 2];
+    }
+
+    public boolean containsKey(long key) {
+        long[] table = this.table;
+        return table[slot(table, key)] == key;
+    }
+
+    public long get(long key, long missingValue) {
+        long[] table = this.table;
+        int slot = slot(table, key);
+        return table[slot] == key ? table[slot + 1] : missingValue;
+    }
+
+    public void put(long key, long value) {
+        if (key <= EMPTY) {
+            throw new IllegalArgumentException("Key should be positive");
+        }
+        int slot = slot(table, key);
+        if (table[slot] == EMPTY) {
+            if ((size + 1) * 4 > table.length) {
+                resize();
+                slot = slot(table, key);
+            }
+            table[slot] = key;
+            size++;
+        }
+        table[slot + 1] = value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void forEach(EntryConsumer consumer) {
+        for (int slot = 0; slot < table.length; slot += 2) {
+            if (table[slot] != EMPTY) {
+                consumer.accept(table[slot], table[slot + 1]);
+            }
+        }
+    }
+
+    private void resize() {
+        long[] old = table;
+        long[] resized = new long[old.length * 2];
+        for (int slot = 0; slot < old.length; slot += 2) {
+            if (old[slot] != EMPTY) {
+                int target = slot(resized, old[slot]);
+                resized[target] = old[slot];
+                resized[target + 1] = old[slot + 1];
+            }
+        }
+        table = resized;
+    }
+
+    private static int slot(long[] table, long key) {
+        int mask = (table.length >> 1) - 1;
+        long hash = key * 0x9E3779B97F4A7C15L;
+        int index = (int) (hash ^ (hash >>> 32)) & mask;
+        //Load factor stays under a half, so probing always reaches the key or an empty slot
+        for (int probes = 0; probes <= mask; probes++) {
+            long current = table[index << 1];
+            if (current == key || current == EMPTY) {
+                break;
+            }
+            index = (index + 1) & mask;
+        }
+        return index << 1;
+    }
+}
@@ -0,0 +1,125 @@
+package ledger;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Point in time copies of all ledger balances, so recovery replays only the log written after the copy.
+ * A snapshot is written to a temporary file and renamed once it is on disk, older snapshots are then removed.
+ */
+@Slf4j
+public class SnapshotStore {
+    private static final int MAGIC = 0x4C444753;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".bin";
+
+    @Getter
+    @AllArgsConstructor
+    public static class Snapshot {
+        private final long seq;
+        private final LongLongMap balances;
+    }
+
+    private final Path directory;
+
+    public SnapshotStore(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+    }
+
+    public void write(long seq, long[] accountIds, long[] balances, int count) throws IOException {
+        Path target = directory.resolve(String.format("%s%020d%s", PREFIX, seq, SUFFIX));
+        Path temporary = directory.resolve(target.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temporary.toFile())) {
+            CRC32C crc = new CRC32C();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(file, crc), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeLong(seq);
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                out.writeLong(accountIds[i]);
+                out.writeLong(balances[i]);
+            }
+            out.flush();
+            new DataOutputStream(file).writeInt((int) crc.getValue());
+            file.getFD().sync();
+        }
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+
+        for (Path snapshot : list()) {
+            if (!snapshot.equals(target)) {
+                Files.deleteIfExists(snapshot);
+            }
+        }
+        log.info("Ledger snapshot of {} accounts written at record {}", count, seq);
+    }
+
+    /**
+     * @return newest snapshot that passes its checksum or null if there is none
+     */
+    public Snapshot loadLatest(int expectedAccounts) throws IOException {
+        List<Path> snapshots = list();
+        for (int i = snapshots.size() - 1; i >= 0; i--) {
+            Snapshot snapshot = load(snapshots.get(i), expectedAccounts);
+            if (snapshot != null) {
+                return snapshot;
+            }
+        }
+        return null;
+    }
+
+    private Snapshot load(Path path, int expectedAccounts) throws IOException {
+        try (InputStream file = Files.newInputStream(path)) {
+            CRC32C crc = new CRC32C();
+            long length = Files.size(path) - Integer.BYTES;
+            DataInputStream in = new DataInputStream(new CheckedInputStream(new BufferedInputStream(file, 1 << 16), crc));
+            if (length < 16 || in.readInt() != MAGIC) {
+                log.warn("Ledger snapshot {} is not valid, skipped", path);
+                return null;
+            }
+            long seq = in.readLong();
+            int count = in.readInt();
+            if (length != 16 + 16L * count) {
+                log.warn("Ledger snapshot {} is incomplete, skipped", path);
+                return null;
+            }
+            LongLongMap balances = new LongLongMap(Math.max(expectedAccounts, count));
+            for (int i = 0; i < count; i++) {
+                balances.put(in.readLong(), in.readLong());
+            }
+            int checksum = (int) crc.getValue();
+            if (checksum != in.readInt()) {
+                log.warn("Ledger snapshot {} does not match its checksum, skipped", path);
+                return null;
+            }
+            return new Snapshot(seq, balances);
+        }
+    }
+
+    private List<Path> list() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> {
+                String name = file.getFileName().toString();
+                return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+            }).sorted().collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package ledger;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append only log of ledger entries in fixed size memory-mapped segments.
+ * Every record carries a CRC, a record torn by a crash ends its segment on replay.
+ * Segment files are named after the sequence number of their first record.
+ * Appends and syncs are done by the ledger writer thread only.
+ */
+@Slf4j
+public class WriteAheadLog implements Closeable {
+    static final int RECORD_SIZE = 8 * Long.BYTES + Integer.BYTES;
+    private static final String PREFIX = "wal-";
+    private static final String SUFFIX = ".log";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final CRC32C crc;
+    private final List<Path> segments;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int syncedPosition;
+
+    public WriteAheadLog(Path directory, int segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize - segmentSize % RECORD_SIZE;
+        crc = new CRC32C();
+        Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            segments = files.filter(WriteAheadLog::isSegment).sorted().collect(Collectors.toCollection(ArrayList::new));
+        }
+    }
+
+    /**
+     * Reads all valid records in order. Appending starts after {@link #open(long)}.
+     * @return sequence number of the last valid record or 0 if the log is empty
+     */
+    public long replay(Consumer<LedgerEntry> consumer) throws IOException {
+        long lastSeq = 0;
+        replay:
+        for (Path segment : segments) {
+            try (FileChannel segmentChannel = FileChannel.open(segment, StandardOpenOption.READ)) {
+                MappedByteBuffer records = segmentChannel.map(FileChannel.MapMode.READ_ONLY, 0, segmentChannel.size());
+                while (records.remaining() >= RECORD_SIZE) {
+                    LedgerEntry entry = read(records);
+                    if (entry == null) {
+                        break;
+                    }
+                    if (lastSeq != 0 && entry.getSeq() != lastSeq + 1) {
+                        log.error("Write-ahead log has a gap after record {} in {}, replay stopped", lastSeq, segment);
+                        break replay;
+                    }
+                    lastSeq = entry.getSeq();
+                    consumer.accept(entry);
+                }
+            }
+        }
+        return lastSeq;
+    }
+
+    /**
+     * Starts a new segment for records from the given sequence number on.
+     */
+    public void open(long nextSeq) throws IOException {
+        openSegment(nextSeq);
+    }
+
+    public void append(LedgerEntry entry) throws IOException {
+        if (buffer.remaining() < RECORD_SIZE) {
+            sync();
+            openSegment(entry.getSeq());
+        }
+        int start = buffer.position();
+        buffer.putLong(entry.getSeq())
+                .putLong(entry.getSenderAccountId())
+                .putLong(entry.getReceiverAccountId())
+                .putLong(entry.getAmount())
+                .putLong(entry.getSenderBalance())
+                .putLong(entry.getReceiverBalance())
+                .putLong(entry.getTimestamp())
+                .putLong(entry.getClaimId());
+        crc.reset();
+        crc.update(buffer.slice(start, RECORD_SIZE - Integer.BYTES));
+        buffer.putInt((int) crc.getValue());
+    }
+
+    /**
+     * Forces records appended since the previous sync to the storage device.
+     */
+    public void sync() {
+        int position = buffer.position();
+        if (position > syncedPosition) {
+            buffer.force(syncedPosition, position - syncedPosition);
+            syncedPosition = position;
+        }
+    }
+
+    /**
+     * Deletes segments whose records all have sequence numbers up to the given one.
+     * The segment being written is never deleted.
+     */
+    public synchronized void deleteSegmentsUpTo(long seq) {
+        while (segments.size() > 1 && firstSeq(segments.get(1)) - 1 <= seq) {
+            Path segment = segments.remove(0);
+            try {
+                Files.deleteIfExists(segment);
+                log.debug("Write-ahead log segment {} deleted", segment);
+            } catch (IOException e) {
+                log.error("Error occurred while deleting write-ahead log segment {}: {}", segment, e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        sync();
+        channel.close();
+    }
+
+    private synchronized void openSegment(long firstSeq) throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+        Path segment = directory.resolve(String.format("%s%020d%s", PREFIX, firstSeq, SUFFIX));
+        //A segment named after the next record holds no valid records, stale bytes in it must not be replayed later
+        channel = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        syncedPosition = 0;
+        if (!segments.contains(segment)) {
+            segments.add(segment);
+        }
+    }
+
+    private LedgerEntry read(MappedByteBuffer records) {
+        int start = records.position();
+        long seq = records.getLong(start);
+        if (seq == 0) {
+            return null;
+        }
+        crc.reset();
+        crc.update(records.slice(start, RECORD_SIZE - Integer.BYTES));
+        if ((int) crc.getValue() != records.getInt(start + RECORD_SIZE - Integer.BYTES)) {
+            log.warn("Write-ahead log record {} is torn, rest of its segment is skipped", seq);
+            return null;
+        }
+        LedgerEntry entry = new LedgerEntry(
+                records.getLong(), records.getLong(), records.getLong(), records.getLong(),
+                records.getLong(), records.getLong(), records.getLong(), records.getLong()
+        );
+        records.getInt();
+        return entry;
+    }
+
+    private static boolean isSegment(Path file) {
+        String name = file.getFileName().toString();
+        return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+    }
+
+    private static long firstSeq(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+}
@@ -0,0 +1,56 @@
+package limit;
+
+import metrics.Metrics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caps the number of requests handled at once over all routes. A request over the cap is refused straight away
+ * instead of queueing behind the others, so the requests already admitted keep their latency.
+ */
+public class ConcurrencyLimiter {
+    private final int maxConcurrency;
+    private final AtomicInteger inFlight;
+    private final LongAdder rejected;
+
+    public ConcurrencyLimiter(LimitConfig config) {
+        maxConcurrency = config.getConcurrency();
+        inFlight = new AtomicInteger();
+        rejected = Metrics.counter("limit_concurrency_rejections_total", "Requests refused over the concurrency limit");
+        Metrics.gauge("limit_concurrency_in_flight", "Requests being handled", this::getInFlight);
+    }
+
+    /**
+     * @return false if the cap is reached, otherwise the caller has to {@link #release()} once the request is handled
+     */
+    public boolean tryAcquire() {
+        if (maxConcurrency <= 0) {
+            return true;
+        }
+        if (inFlight.incrementAndGet() > maxConcurrency) {
+            inFlight.decrementAndGet();
+            rejected.increment();
+            return false;
+        }
+        return true;
+    }
+
+    public void release() {
+        if (maxConcurrency > 0) {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+}
@@ -0,0 +1,61 @@
+package limit;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import utils.PropertiesLoader;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.Collectors;
+
+@Getter
+public class LimitConfig {
+    private static final String RATE_PREFIX = "limit.rate.";
+    private static final String BURST_PREFIX = "limit.burst.";
+    private static final String DEFAULT_ROUTE = "default";
+
+    @Getter
+    @AllArgsConstructor
+    public static class RouteLimit {
+        private final double rate;
+        private final int burst;
+    }
+
+    private final int concurrency;
+    private final RouteLimit defaultLimit;
+    private final Map<String, RouteLimit> routeLimits;
+    private final Duration idleTimeout;
+    private final int maxBuckets;
+    private final List<String> trustedProxies;
+
+    public LimitConfig() {
+        Properties limitProperties = PropertiesLoader.load("/limits.properties");
+
+        concurrency = Integer.parseInt(limitProperties.getProperty("limit.concurrency", "256"));
+        defaultLimit = routeLimit(limitProperties, DEFAULT_ROUTE, "100", "200");
+        routeLimits = new HashMap<>();
+        for (String name : limitProperties.stringPropertyNames()) {
+            if (name.startsWith(RATE_PREFIX) && !name.equals(RATE_PREFIX + DEFAULT_ROUTE)) {
+                String route = name.substring(RATE_PREFIX.length());
+                routeLimits.put(route, routeLimit(limitProperties, route, "0", "1"));
+            }
+        }
+        idleTimeout = Duration.parse(limitProperties.getProperty("limit.idle-timeout", "PT1M"));
+        maxBuckets = Integer.parseInt(limitProperties.getProperty("limit.max-buckets", "100000"));
+        trustedProxies = Arrays.stream(limitProperties.getProperty("limit.trusted-proxies", "").split(","))
+                .map(String::trim)
+                .filter(proxy -> !proxy.isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    private static RouteLimit routeLimit(Properties limitProperties, String route, String rate, String burst) {
+        return new RouteLimit(
+                Double.parseDouble(limitProperties.getProperty(RATE_PREFIX + route, rate)),
+                Integer.parseInt(limitProperties.getProperty(BURST_PREFIX + route, burst))
+        );
+    }
+}
@@ -0,0 +1,123 @@
+package limit;
+
+import metrics.Metrics;
+import utils.BoundedMap;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Token bucket per client and route. A bucket is kept as the time it is full again, a request moves that time
+ * one refill interval on and is refused if it would end up more than a burst ahead of now.
+ * Checking a request is a single compare-and-set, no lock is taken.
+ * Only full buckets are dropped, a new bucket would be the same: by the request that finds the sweep due
+ * and by the request that finds the limiter full. When every kept bucket is in use, clients without a bucket
+ * share the fallback bucket of the route instead of resetting the buckets of active clients.
+ */
+public class RateLimiter {
+    private static final String DEFAULT_GROUP = "*";
+
+    private final Limit defaultLimit;
+    private final Map<String, Limit> routeLimits;
+    private final long sweepIntervalNanos;
+    private final BoundedMap<String, AtomicLong> buckets;
+    private final AtomicLong nextSweepNanos;
+    private final LongAdder rejected;
+    private final LongAdder evictions;
+    private final LongAdder fallbacks;
+
+    public RateLimiter(LimitConfig config) {
+        defaultLimit = Limit.of(DEFAULT_GROUP, config.getDefaultLimit());
+        routeLimits = new HashMap<>();
+        config.getRouteLimits().forEach((route, limit) -> routeLimits.put(route, Limit.of(route, limit)));
+        sweepIntervalNanos = config.getIdleTimeout().toNanos();
+        nextSweepNanos = new AtomicLong(System.nanoTime() + sweepIntervalNanos);
+        rejected = Metrics.counter("limit_rate_rejections_total", "Requests refused over a client rate limit");
+        evictions = Metrics.counter("limit_rate_bucket_evictions_total", "Rate limit buckets dropped");
+        fallbacks = Metrics.counter("limit_rate_fallbacks_total",
+                "Requests checked against the shared bucket of their route because no bucket could be kept for the client");
+        buckets = new BoundedMap<>(config.getMaxBuckets(), bucket -> bucket.get() - System.nanoTime() <= 0, evictions);
+        Metrics.gauge("limit_rate_buckets", "Rate limit buckets kept", this::getSize);
+    }
+
+    /**
+     * @return whether the route is limited at all, so the caller can skip identifying the client
+     */
+    public boolean isLimited(String route) {
+        return limitOf(route).intervalNanos > 0;
+    }
+
+    /**
+     * @return false if the client has used up its bucket for the route
+     */
+    public boolean tryAcquire(String route, String client) {
+        Limit limit = limitOf(route);
+        if (limit.intervalNanos <= 0) {
+            return true;
+        }
+        long now = System.nanoTime();
+        long sweepAt = nextSweepNanos.get();
+        if (now - sweepAt >= 0 && nextSweepNanos.compareAndSet(sweepAt, now + sweepIntervalNanos)) {
+            buckets.evictStale();
+        }
+
+        AtomicLong bucket = buckets.computeIfAbsentWithoutEviction(limit.group + ' ' + client, key -> new AtomicLong(now));
+        if (bucket == null) {
+            fallbacks.increment();
+            bucket = limit.fallback;
+        }
+        while (true) {
+            long fullAt = bucket.get();
+            long next = Math.max(fullAt - now, 0) + limit.intervalNanos;
+            if (next > limit.capacityNanos) {
+                rejected.increment();
+                return false;
+            }
+            if (bucket.compareAndSet(fullAt, now + next)) {
+                return true;
+            }
+        }
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getFallbacks() {
+        return fallbacks.sum();
+    }
+
+    public int getSize() {
+        return buckets.size();
+    }
+
+    private Limit limitOf(String route) {
+        Limit limit = routeLimits.get(route);
+        return limit != null ? limit : defaultLimit;
+    }
+
+    private static final class Limit {
+        private final String group;
+        private final long intervalNanos;
+        private final long capacityNanos;
+        private final AtomicLong fallback;
+
+        private Limit(String group, long intervalNanos, long capacityNanos) {
+            this.group = group;
+            this.intervalNanos = intervalNanos;
+            this.capacityNanos = capacityNanos;
+            fallback = new AtomicLong(System.nanoTime());
+        }
+
+        private static Limit of(String group, LimitConfig.RouteLimit limit) {
+            long intervalNanos = limit.getRate() > 0 ? (long) (1_000_000_000L / limit.getRate()) : 0;
+            return new Limit(group, intervalNanos, intervalNanos * Math.max(limit.getBurst(), 1));
+        }
+    }
+}
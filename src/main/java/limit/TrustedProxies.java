@@ -0,0 +1,168 @@
+package limit;
+
+import rawhttp.core.RawHttpHeaders;
+import rawhttp.core.RawHttpRequest;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the address of the client behind reverse proxies. Forwarded and X-Forwarded-For are only believed
+ * when the connection comes from a trusted proxy, any client could send them. The addresses are read from the right,
+ * each trusted proxy vouches for the hop before it, and the first address that is not a trusted proxy is the client.
+ * Without trusted proxies the client is the remote address of the connection.
+ */
+public class TrustedProxies {
+    private final List<Range> ranges;
+
+    /**
+     * @param proxies addresses or CIDR ranges, e.g. 10.0.0.0/8
+     */
+    public TrustedProxies(List<String> proxies) {
+        ranges = new ArrayList<>();
+        for (String proxy : proxies) {
+            ranges.add(Range.parse(proxy));
+        }
+    }
+
+    public String clientAddress(RawHttpRequest request) {
+        return clientAddress(request.getSenderAddress().orElse(null), request.getHeaders());
+    }
+
+    String clientAddress(InetAddress remote, RawHttpHeaders headers) {
+        if (remote == null) {
+            return "unknown";
+        }
+        if (!isTrusted(remote)) {
+            return remote.getHostAddress();
+        }
+        List<String> hops = forwardedFor(headers);
+        String client = remote.getHostAddress();
+        for (int i = hops.size() - 1; i >= 0; i--) {
+            InetAddress hop = literal(hops.get(i));
+            //Obfuscated or unknown identifiers are kept as they are, the proxy that wrote them is trusted
+            client = hop != null ? hop.getHostAddress() : hops.get(i);
+            if (hop == null || !isTrusted(hop)) {
+                break;
+            }
+        }
+        return client;
+    }
+
+    private boolean isTrusted(InetAddress address) {
+        for (Range range : ranges) {
+            if (range.contains(address)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return hops of Forwarded if it is sent, otherwise of X-Forwarded-For, the client first
+     */
+    private static List<String> forwardedFor(RawHttpHeaders headers) {
+        List<String> hops = new ArrayList<>();
+        List<String> forwarded = headers.get("Forwarded");
+        if (!forwarded.isEmpty()) {
+            for (String value : forwarded) {
+                for (String element : value.split(",")) {
+                    for (String pair : element.split(";")) {
+                        String trimmed = pair.trim();
+                        if (trimmed.regionMatches(true, 0, "for=", 0, 4)) {
+                            hops.add(stripPort(unquote(trimmed.substring(4).trim())));
+                        }
+                    }
+                }
+            }
+            return hops;
+        }
+        for (String value : headers.get("X-Forwarded-For")) {
+            for (String hop : value.split(",")) {
+                if (!hop.isBlank()) {
+                    hops.add(stripPort(hop.trim()));
+                }
+            }
+        }
+        return hops;
+    }
+
+    private static String unquote(String value) {
+        return value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")
+                ? value.substring(1, value.length() - 1)
+                : value;
+    }
+
+    private static String stripPort(String hop) {
+        if (hop.startsWith("[")) {
+            int end = hop.indexOf(']');
+            return end > 0 ? hop.substring(1, end) : hop;
+        }
+        int colon = hop.indexOf(':');
+        //A single colon separates the port of an IPv4 address, IPv6 addresses have more
+        return colon > 0 && colon == hop.lastIndexOf(':') ? hop.substring(0, colon) : hop;
+    }
+
+    /**
+     * @return address of an IP literal, null for anything else, host names are never resolved
+     */
+    private static InetAddress literal(String value) {
+        if (value.isEmpty() || !value.chars().allMatch(c -> Character.digit(c, 16) >= 0 || c == '.' || c == ':')) {
+            return null;
+        }
+        if (value.indexOf(':') < 0 && !value.chars().allMatch(c -> Character.isDigit(c) || c == '.')) {
+            return null;
+        }
+        try {
+            return InetAddress.getByName(value);
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
+    private static final class Range {
+        private final byte[] network;
+        private final int prefixBits;
+
+        private Range(byte[] network, int prefixBits) {
+            this.network = network;
+            this.prefixBits = prefixBits;
+        }
+
+        private static Range parse(String proxy) {
+            String trimmed = proxy.trim();
+            int slash = trimmed.indexOf('/');
+            InetAddress address = literal(slash >= 0 ? trimmed.substring(0, slash) : trimmed);
+            if (address == null) {
+                throw new IllegalArgumentException("Trusted proxy " + proxy + " is not an IP address or CIDR range");
+            }
+            byte[] network = address.getAddress();
+            int prefixBits = slash >= 0 ? Integer.parseInt(trimmed.substring(slash + 1)) : network.length * 8;
+            if (prefixBits < 0 || prefixBits > network.length * 8) {
+                throw new IllegalArgumentException("Trusted proxy " + proxy + " has an invalid prefix length");
+            }
+            return new Range(network, prefixBits);
+        }
+
+        private boolean contains(InetAddress address) {
+            byte[] bytes = address.getAddress();
+            if (bytes.length != network.length) {
+                return false;
+            }
+            int fullBytes = prefixBits / 8;
+            for (int i = 0; i < fullBytes; i++) {
+                if (bytes[i] != network[i]) {
+                    return false;
+                }
+            }
+            int restBits = prefixBits % 8;
+            if (restBits == 0) {
+                return true;
+            }
+            int mask = 0xFF << (8 - restBits);
+            return (bytes[fullBytes] & mask) == (network[fullBytes] & mask);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package metrics;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Process wide registry of metrics, written in Prometheus text format.
+ * Components register their timers and counters once, when they are created, and keep them in fields,
+ * so recording never looks anything up. Counters and gauges already kept by a component are registered as suppliers
+ * and read only when metrics are written. Registering a series again returns the existing timer or counter,
+ * a supplier registered again replaces the previous one.
+ */
+public final class Metrics {
+    private static final String HISTOGRAM = "histogram";
+    private static final String COUNTER = "counter";
+    private static final String GAUGE = "gauge";
+    //Two bucket bounds per power of two from 64 microseconds to about 34 seconds are exported
+    private static final long MIN_EXPORTED_MICROS = 64;
+    private static final long MAX_EXPORTED_MICROS = 1L << 25;
+
+    private static final Map<String, Family> FAMILIES = new LinkedHashMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * @param labels label names and values in turns
+     */
+    public static synchronized LatencyHistogram timer(String name, String help, String... labels) {
+        return (LatencyHistogram) family(name, help, HISTOGRAM).series.computeIfAbsent(labels(labels), key -> new LatencyHistogram());
+    }
+
+    /**
+     * Timer of a dao operation, retries included. All operations share one metric labeled by operation.
+     */
+    public static LatencyHistogram operationTimer(String operation) {
+        return timer("db_operation_duration_seconds", "Time spent in a dao operation", "operation", operation);
+    }
+
+    public static synchronized LongAdder counter(String name, String help, String... labels) {
+        return (LongAdder) family(name, help, COUNTER).series.computeIfAbsent(labels(labels), key -> new LongAdder());
+    }
+
+    public static synchronized void counter(String name, String help, LongSupplier value, String... labels) {
+        family(name, help, COUNTER).series.put(labels(labels), value);
+    }
+
+    public static synchronized void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help, GAUGE).series.put(labels(labels), value);
+    }
+
+    public static synchronized String scrape() {
+        StringBuilder out = new StringBuilder(16 * 1024);
+        for (Map.Entry<String, Family> entry : FAMILIES.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Object> series : family.series.entrySet()) {
+                String labels = series.getKey();
+                Object metric = series.getValue();
+                if (metric instanceof LatencyHistogram) {
+                    writeHistogram(out, name, labels, (LatencyHistogram) metric);
+                } else if (metric instanceof LongAdder) {
+                    writeSample(out, name, "", labels, "", Long.toString(((LongAdder) metric).sum()));
+                } else if (metric instanceof LongSupplier) {
+                    writeSample(out, name, "", labels, "", Long.toString(((LongSupplier) metric).getAsLong()));
+                } else {
+                    writeSample(out, name, "", labels, "", format(((DoubleSupplier) metric).getAsDouble()));
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    private static Family family(String name, String help, String type) {
+        Family family = FAMILIES.computeIfAbsent(name, key -> new Family(help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is registered as " + family.type);
+        }
+        return family;
+    }
+
+    private static String labels(String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels should be given as name and value pairs");
+        }
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            text.append(i == 0 ? "" : ",").append(labels[i]).append("=\"")
+                    .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append('"');
+        }
+        return text.toString();
+    }
+
+    private static void writeHistogram(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        long[] counts = histogram.snapshot();
+        long cumulative = 0;
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            cumulative += counts[bucket];
+            long bound = LatencyHistogram.upperBound(bucket);
+            if (bucket % 2 == 1 && bound >= MIN_EXPORTED_MICROS && bound <= MAX_EXPORTED_MICROS) {
+                writeSample(out, name, "_bucket", labels, "le=\"" + format(bound / 1e6) + "\"", Long.toString(cumulative));
+            }
+        }
+        writeSample(out, name, "_bucket", labels, "le=\"+Inf\"", Long.toString(cumulative));
+        writeSample(out, name, "_sum", labels, "", format(histogram.getSumNanos() / 1e9));
+        writeSample(out, name, "_count", labels, "", Long.toString(cumulative));
+    }
+
+    private static void writeSample(StringBuilder out, String name, String suffix, String labels, String extraLabel, String value) {
+        out.append(name).append(suffix);
+        if (!labels.isEmpty() || !extraLabel.isEmpty()) {
+            out.append('{').append(labels);
+            if (!labels.isEmpty() && !extraLabel.isEmpty()) {
+                out.append(',');
+            }
+            out.append(extraLabel).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static String format(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+    }
+
+    private static final class Family {
+        private final String help;
+        private final String type;
+        private final Map<String, Object> series;
+
+        private Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+            series = new LinkedHashMap<>();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Request latency per route and response status. Paths other than the known routes share one series,
+ * so a client can not create new series by requesting random paths.
+ * A timer is registered the first time its route answers with a status, later requests only record into it.
+ */
+public class RequestMetrics {
+    private static final String NAME = "http_request_duration_seconds";
+    private static final String HELP = "Time to produce a response, by route and status";
+    private static final String OTHER_ROUTE = "other";
+    private static final int MIN_STATUS = 100;
+    private static final int MAX_STATUS = 599;
+
+    private final Map<String, AtomicReferenceArray<LatencyHistogram>> routes;
+    private final AtomicReferenceArray<LatencyHistogram> otherRoute;
+
+    public RequestMetrics(String... knownRoutes) {
+        routes = new HashMap<>();
+        for (String route : knownRoutes) {
+            routes.put(route, new AtomicReferenceArray<>(MAX_STATUS - MIN_STATUS + 1));
+        }
+        otherRoute = new AtomicReferenceArray<>(MAX_STATUS - MIN_STATUS + 1);
+    }
+
+    public void record(String path, int status, long startNanos) {
+        if (status < MIN_STATUS || status > MAX_STATUS) {
+            return;
+        }
+        AtomicReferenceArray<LatencyHistogram> timers = routes.get(path);
+        String route = path;
+        if (timers == null) {
+            timers = otherRoute;
+            route = OTHER_ROUTE;
+        }
+        LatencyHistogram timer = timers.get(status - MIN_STATUS);
+        if (timer == null) {
+            timer = Metrics.timer(NAME, HELP, "route", route, "status", Integer.toString(status));
+            timers.set(status - MIN_STATUS, timer);
+        }
+        timer.recordSince(startNanos);
+    }
+}
@@ -0,0 +1,16 @@
+package model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Ids behind a username. Users and accounts are never deleted or renamed, so the ids never change.
+ * Stripe count only grows, a stale value is lower than the real one and still names existing stripes.
+ */
+@Getter
+@AllArgsConstructor
+public class AccountIdentity {
+    private final long userId;
+    private final long accountId;
+    private final int stripeCount;
+}
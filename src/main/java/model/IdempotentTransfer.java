@@ -0,0 +1,17 @@
+package model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Transfer recorded under an idempotency key. Balance is the sender balance returned by the transfer.
+ * Database transfers store it in the same transaction as the transfer, a key claimed for a ledger transfer
+ * has a null balance until the transfer is durable.
+ */
+@Getter
+@AllArgsConstructor
+public class IdempotentTransfer {
+    private final long receiverAccountId;
+    private final long amount;
+    private final Long balance;
+}
@@ -0,0 +1,18 @@
+package model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Instant;
+
+@Getter
+@Setter
+@AllArgsConstructor
+public class Transaction {
+    private Long id;
+    private String senderUsername;
+    private String receiverUsername;
+    private Long amount;
+    private Instant createdAt;
+}
@@ -0,0 +1,74 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Blocking stream over a non-blocking channel, used by a worker thread streaming a response.
+ * When the client does not accept more bytes the worker waits until the event loop reports the channel writable,
+ * so a slow client slows the producer down instead of the response piling up in memory.
+ */
+class ChannelOutputStream extends OutputStream {
+    private final SocketChannel channel;
+    private final Runnable requestWritable;
+    private final long timeoutMillis;
+    private final Object lock;
+    private boolean writable;
+
+    /**
+     * @param requestWritable asks the event loop to call {@link #signalWritable()} once the channel is writable
+     */
+    ChannelOutputStream(SocketChannel channel, Runnable requestWritable, long timeoutMillis) {
+        this.channel = channel;
+        this.requestWritable = requestWritable;
+        this.timeoutMillis = timeoutMillis;
+        lock = new Object();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+        while (buffer.hasRemaining()) {
+            if (channel.write(buffer) == 0) {
+                awaitWritable();
+            }
+        }
+    }
+
+    void signalWritable() {
+        synchronized (lock) {
+            writable = true;
+            lock.notifyAll();
+        }
+    }
+
+    private void awaitWritable() throws IOException {
+        synchronized (lock) {
+            writable = false;
+        }
+        requestWritable.run();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (lock) {
+            while (!writable) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0 || !channel.isOpen()) {
+                    throw new SocketTimeoutException("Client did not accept the response in time");
+                }
+                try {
+                    lock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the client");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package server;
+
+import exception.RequestRejectedException;
+import org.apache.hc.core5.http.HttpStatus;
+import rawhttp.core.HttpMetadataParser;
+import rawhttp.core.RawHttp;
+import rawhttp.core.RawHttpHeaders;
+import rawhttp.core.RawHttpRequest;
+import rawhttp.core.RequestLine;
+import rawhttp.core.body.FramedBody;
+import rawhttp.core.body.LazyBodyReader;
+import rawhttp.core.errors.InvalidHttpRequest;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads consecutive requests from a blocking connection.
+ * Header block is buffered up to the configured limit, body is not buffered
+ * and is handed to controllers as a stream bounded by Content-Length.
+ */
+public class HttpRequestReader {
+    private final ServerConfig config;
+    private final Socket socket;
+    private final InputStream in;
+    private final HttpMetadataParser parser;
+    private final byte[] headerBuffer;
+    private BodyInputStream body;
+
+    public HttpRequestReader(ServerConfig config, Socket socket, RawHttp http) throws IOException {
+        this.config = config;
+        this.socket = socket;
+        in = new BufferedInputStream(socket.getInputStream());
+        parser = http.getMetadataParser();
+        headerBuffer = new byte[config.getMaxHeaderSize()];
+    }
+
+    /**
+     * Skips unread body of the previous request and waits for the next request for keep-alive timeout.
+     * @return false if the client has closed the connection
+     */
+    public boolean awaitRequest() throws IOException {
+        if (body != null) {
+            socket.setSoTimeout((int) config.getReadTimeout().toMillis());
+            body.discard();
+            body = null;
+        }
+        socket.setSoTimeout((int) config.getKeepAliveTimeout().toMillis());
+        in.mark(1);
+        if (in.read() < 0) {
+            return false;
+        }
+        in.reset();
+        return true;
+    }
+
+    public RawHttpRequest readRequest() throws IOException {
+        int headerLength = readHeaderBlock(System.nanoTime() + config.getReadTimeout().toNanos());
+
+        RequestLine requestLine;
+        RawHttpHeaders headers;
+        try {
+            ByteArrayInputStream head = new ByteArrayInputStream(headerBuffer, 0, headerLength);
+            requestLine = parser.parseRequestLine(head);
+            headers = parser.parseHeaders(head, InvalidHttpRequest::new);
+        } catch (InvalidHttpRequest e) {
+            throw new RequestRejectedException(HttpStatus.SC_BAD_REQUEST, e.getMessage());
+        }
+
+        if (headers.contains("Transfer-Encoding")) {
+            throw new RequestRejectedException(HttpStatus.SC_LENGTH_REQUIRED, "Content-Length header is required");
+        }
+
+        LazyBodyReader bodyReader = null;
+        List<String> contentLengthHeaders = headers.get("Content-Length");
+        if (!contentLengthHeaders.isEmpty()) {
+            long contentLength = contentLength(contentLengthHeaders.get(0));
+            socket.setSoTimeout((int) config.getReadTimeout().toMillis());
+            body = new BodyInputStream(in, contentLength);
+            bodyReader = new LazyBodyReader(new FramedBody.ContentLength(contentLength), body);
+        }
+        return new RawHttpRequest(requestLine, headers, bodyReader, socket.getInetAddress());
+    }
+
+    private int readHeaderBlock(long deadlineNanos) throws IOException {
+        int length = 0;
+        while (true) {
+            if (in.available() == 0) {
+                long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+                if (remainingMillis <= 0) {
+                    throw new RequestRejectedException(HttpStatus.SC_REQUEST_TIMEOUT, "Request headers were not received in time");
+                }
+                socket.setSoTimeout((int) remainingMillis);
+            }
+
+            int next;
+            try {
+                next = in.read();
+            } catch (SocketTimeoutException e) {
+                throw new RequestRejectedException(HttpStatus.SC_REQUEST_TIMEOUT, "Request headers were not received in time");
+            }
+            if (next < 0) {
+                throw new EOFException("Connection closed while reading request headers");
+            }
+            if (length == headerBuffer.length) {
+                throw new RequestRejectedException(HttpStatus.SC_REQUEST_HEADER_FIELDS_TOO_LARGE, "Request headers are too large");
+            }
+
+            headerBuffer[length++] = (byte) next;
+            if (next == '\n' && length >= 4 && headerBuffer[length - 2] == '\r'
+                    && headerBuffer[length - 3] == '\n' && headerBuffer[length - 4] == '\r') {
+                return length;
+            }
+        }
+    }
+
+    private long contentLength(String header) {
+        long contentLength;
+        try {
+            contentLength = Long.parseLong(header.trim());
+        } catch (NumberFormatException e) {
+            throw new RequestRejectedException(HttpStatus.SC_BAD_REQUEST, "Invalid Content-Length header");
+        }
+        if (contentLength < 0) {
+            throw new RequestRejectedException(HttpStatus.SC_BAD_REQUEST, "Invalid Content-Length header");
+        }
+        if (contentLength > config.getMaxBodySize()) {
+            throw new RequestRejectedException(HttpStatus.SC_REQUEST_TOO_LONG, "Request body is too large");
+        }
+        return contentLength;
+    }
+
+    /**
+     * Exposes exactly Content-Length bytes of the connection stream.
+     * Closing it leaves the connection open, unread bytes are skipped before the next request.
+     */
+    private static class BodyInputStream extends InputStream {
+        private final InputStream in;
+        private long remaining;
+
+        private BodyInputStream(InputStream in, long length) {
+            this.in = in;
+            remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            int next = in.read();
+            if (next < 0) {
+                throw new EOFException("Connection closed while reading request body");
+            }
+            remaining--;
+            return next;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            int read = in.read(buffer, offset, (int) Math.min(length, remaining));
+            if (read < 0) {
+                throw new EOFException("Connection closed while reading request body");
+            }
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        private void discard() throws IOException {
+            while (remaining > 0) {
+                long skipped = in.skip(remaining);
+                if (skipped <= 0 && read() < 0) {
+                    return;
+                }
+                remaining -= Math.max(skipped, 0);
+            }
+        }
+    }
+}
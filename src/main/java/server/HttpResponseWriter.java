@@ -0,0 +1,155 @@
+package server;
+
+import org.apache.hc.core5.http.impl.EnglishReasonPhraseCatalog;
+import utils.HttpResponse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serializes responses from pre-encoded status lines and headers, without building intermediate strings.
+ * Not thread safe, every connection (or nio event loop) owns its writer and reuses its buffer.
+ */
+public class HttpResponseWriter {
+    private static final int MIN_STATUS = 100;
+    private static final int MAX_STATUS = 599;
+    private static final int HEAD_BUFFER_BYTES = 256;
+    private static final int CHUNK_BYTES = 8 * 1024;
+
+    private static final byte[][] STATUS_LINES = new byte[MAX_STATUS - MIN_STATUS + 1][];
+    private static final byte[] CONTENT_HEADERS = ascii("Content-Type: application/json\r\nContent-Length: ");
+    private static final byte[] KEEP_ALIVE_HEADER = ascii("\r\nConnection: keep-alive\r\n\r\n");
+    private static final byte[] CLOSE_HEADER = ascii("\r\nConnection: close\r\n\r\n");
+    private static final byte[] CHUNKED_HEADER = ascii("\r\nTransfer-Encoding: chunked");
+    private static final byte[] GZIP_HEADER = ascii("\r\nContent-Encoding: gzip\r\nVary: Accept-Encoding");
+
+    static {
+        for (int status = MIN_STATUS; status <= MAX_STATUS; status++) {
+            String reason = EnglishReasonPhraseCatalog.INSTANCE.getReason(status, Locale.ENGLISH);
+            STATUS_LINES[status - MIN_STATUS] = ascii("HTTP/1.1 " + status + " " + (reason != null ? reason : "") + "\r\n");
+        }
+    }
+
+    private final ByteBuffer buffer;
+
+    private HttpResponseWriter(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Writer for blocking streams, head is assembled in a small heap buffer.
+     */
+    public static HttpResponseWriter forStream() {
+        return new HttpResponseWriter(ByteBuffer.allocate(HEAD_BUFFER_BYTES));
+    }
+
+    /**
+     * Writer for channels, head and body are copied into a pooled direct buffer,
+     * so the channel does not need a temporary direct copy of its own.
+     */
+    public static HttpResponseWriter forChannel(int bufferSize) {
+        return new HttpResponseWriter(ByteBuffer.allocateDirect(Math.max(bufferSize, HEAD_BUFFER_BYTES)));
+    }
+
+    public void writeTo(OutputStream out, HttpResponse response, boolean keepAlive) throws IOException {
+        if (response.isStreaming()) {
+            writeStreamTo(out, response, keepAlive);
+            return;
+        }
+        buffer.clear();
+        putHead(response, keepAlive);
+        out.write(buffer.array(), 0, buffer.position());
+        out.write(response.getBody());
+    }
+
+    /**
+     * Writes as much of the response as the channel accepts without blocking.
+     * @return bytes the channel did not accept yet or null if the response is written completely
+     */
+    public ByteBuffer writeTo(SocketChannel channel, HttpResponse response, boolean keepAlive) throws IOException {
+        byte[] body = response.getBody();
+        buffer.clear();
+        putHead(response, keepAlive);
+        int copied = Math.min(buffer.remaining(), body.length);
+        buffer.put(body, 0, copied);
+        buffer.flip();
+        channel.write(buffer);
+
+        if (!buffer.hasRemaining() && copied == body.length) {
+            return null;
+        }
+        ByteBuffer remainder = ByteBuffer.allocate(buffer.remaining() + body.length - copied);
+        remainder.put(buffer).put(body, copied, body.length - copied).flip();
+        return remainder;
+    }
+
+    /**
+     * Writes the head, then the body in chunks as it is produced, compressing it first if the response asks for gzip.
+     * Memory use does not depend on the body length. A body that fails halfway is not terminated,
+     * the client sees an incomplete response and the caller must close the connection.
+     * The response is completed either way, see {@link HttpResponse#onComplete(Runnable)}.
+     */
+    public void writeStreamTo(OutputStream out, HttpResponse response, boolean keepAlive) throws IOException {
+        try {
+            int status = response.getStatus();
+            out.write(status >= MIN_STATUS && status <= MAX_STATUS
+                    ? STATUS_LINES[status - MIN_STATUS]
+                    : ascii("HTTP/1.1 " + status + " \r\n"));
+            out.write(ascii("Content-Type: " + response.getContentType()));
+            out.write(CHUNKED_HEADER);
+            if (response.isGzip()) {
+                out.write(GZIP_HEADER);
+            }
+            out.write(keepAlive ? KEEP_ALIVE_HEADER : CLOSE_HEADER);
+
+            ChunkedOutputStream chunked = new ChunkedOutputStream(out, CHUNK_BYTES);
+            GZIPOutputStream gzip = response.isGzip() ? new GZIPOutputStream(chunked, CHUNK_BYTES) : null;
+            try {
+                response.getStreamingBody().writeTo(gzip != null ? gzip : chunked);
+            } catch (RuntimeException e) {
+                throw new IOException("Response body failed: " + e.getMessage(), e);
+            }
+            if (gzip != null) {
+                gzip.finish();
+            }
+            chunked.finish();
+        } finally {
+            response.complete();
+        }
+    }
+
+    private void putHead(HttpResponse response, boolean keepAlive) {
+        int status = response.getStatus();
+        if (status >= MIN_STATUS && status <= MAX_STATUS) {
+            buffer.put(STATUS_LINES[status - MIN_STATUS]);
+        } else {
+            buffer.put(ascii("HTTP/1.1 " + status + " \r\n"));
+        }
+        if (response.getContentType() != null) {
+            buffer.put(ascii("Content-Type: " + response.getContentType() + "\r\nContent-Length: "));
+        } else {
+            buffer.put(CONTENT_HEADERS);
+        }
+        putDecimal(response.getBody().length);
+        buffer.put(keepAlive ? KEEP_ALIVE_HEADER : CLOSE_HEADER);
+    }
+
+    private void putDecimal(int value) {
+        int divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            buffer.put((byte) ('0' + value / divisor % 10));
+        }
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,362 @@
+package server;
+
+import controller.RoutingController;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hc.core5.http.HttpStatus;
+import rawhttp.core.HttpMetadataParser;
+import rawhttp.core.RawHttp;
+import rawhttp.core.RawHttpHeaders;
+import rawhttp.core.RawHttpRequest;
+import rawhttp.core.RequestLine;
+import rawhttp.core.body.FramedBody;
+import rawhttp.core.body.LazyBodyReader;
+import rawhttp.core.errors.InvalidHttpRequest;
+import utils.HttpResponse;
+import utils.HttpUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * State of a single client connection served by {@link NioEventLoop}.
+ * All methods except {@link #process(byte[], boolean)} are called from the event loop thread only.
+ * A request is read completely into the connection buffer before a worker runs it, so bodies are limited
+ * to server.nio.max-body-size instead of being streamed to the controller.
+ */
+@Slf4j
+class NioConnection {
+    private static final int INITIAL_BUFFER_BYTES = 4 * 1024;
+    private static final int STREAM_BUFFER_BYTES = 16 * 1024;
+    private static final String INTERNAL_ERROR_BODY = "{ \"message\":\"Internal server error\"}";
+
+    private final ServerConfig config;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final NioEventLoop eventLoop;
+    private final RoutingController controller;
+    private final ExecutorService workers;
+    private final HttpMetadataParser parser;
+    private final HttpUtils httpUtils;
+    private final InetAddress remoteAddress;
+
+    private ByteBuffer readBuffer;
+    private ByteBuffer writeBuffer;
+    private volatile ChannelOutputStream streamingOutput;
+    private boolean processing;
+    private boolean closeAfterWrite;
+    private int servedRequests;
+    private long lastActivityMillis;
+    private long requestStartMillis;
+    private long writeStartMillis;
+
+    NioConnection(
+            ServerConfig config,
+            SocketChannel channel,
+            SelectionKey key,
+            NioEventLoop eventLoop,
+            RoutingController controller,
+            ExecutorService workers
+    ) {
+        this.config = config;
+        this.channel = channel;
+        this.key = key;
+        this.eventLoop = eventLoop;
+        this.controller = controller;
+        this.workers = workers;
+        parser = new RawHttp().getMetadataParser();
+        httpUtils = new HttpUtils();
+        remoteAddress = remoteAddress(channel);
+        readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+        lastActivityMillis = System.currentTimeMillis();
+    }
+
+    void onReadable() {
+        boolean requestStarted = readBuffer.position() == 0;
+        int read;
+        try {
+            read = channel.read(readBuffer);
+        } catch (IOException e) {
+            log.debug("Error occurred while reading from client: {}", e.getMessage());
+            close();
+            return;
+        }
+        if (read < 0) {
+            close();
+            return;
+        }
+        lastActivityMillis = System.currentTimeMillis();
+        if (requestStarted) {
+            requestStartMillis = lastActivityMillis;
+        }
+        if (!processing) {
+            dispatch();
+        }
+    }
+
+    void onWritable() {
+        ChannelOutputStream out = streamingOutput;
+        if (out != null) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            out.signalWritable();
+            return;
+        }
+        flush();
+    }
+
+    void checkTimeouts(long nowMillis) {
+        //A response waiting for the client to read it is closed after the write timeout,
+        //otherwise a client that never reads would hold the connection and its buffer forever
+        if (writeBuffer != null) {
+            if (nowMillis - writeStartMillis > config.getWriteTimeout().toMillis()) {
+                log.debug("Closing connection, response was not read in time");
+                close();
+            }
+            return;
+        }
+        if (processing) {
+            return;
+        }
+        if (readBuffer.position() > 0) {
+            if (nowMillis - requestStartMillis > config.getReadTimeout().toMillis()) {
+                reject(HttpStatus.SC_REQUEST_TIMEOUT, "Request was not received in time");
+            }
+        } else if (nowMillis - lastActivityMillis > config.getKeepAliveTimeout().toMillis()) {
+            log.debug("Closing idle connection");
+            close();
+        }
+    }
+
+    private void dispatch() {
+        int filled = readBuffer.position();
+        int headerEnd = headerEnd(readBuffer.array(), filled);
+        //The buffer may still be grown from an earlier request with a body, the header end can lie beyond the limit
+        if (headerEnd > config.getMaxHeaderSize() || headerEnd < 0 && filled >= config.getMaxHeaderSize()) {
+            reject(HttpStatus.SC_REQUEST_HEADER_FIELDS_TOO_LARGE, "Request headers are too large");
+            return;
+        }
+        if (headerEnd < 0) {
+            if (!readBuffer.hasRemaining()) {
+                resize(filled * 2);
+            }
+            return;
+        }
+
+        long contentLength = 0;
+        String head = new String(readBuffer.array(), 0, headerEnd, StandardCharsets.ISO_8859_1);
+        for (String line : head.split("\r\n")) {
+            int colon = line.indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String name = line.substring(0, colon).trim();
+            if ("Content-Length".equalsIgnoreCase(name)) {
+                try {
+                    contentLength = Long.parseLong(line.substring(colon + 1).trim());
+                } catch (NumberFormatException e) {
+                    reject(HttpStatus.SC_BAD_REQUEST, "Invalid Content-Length header");
+                    return;
+                }
+            } else if ("Transfer-Encoding".equalsIgnoreCase(name)) {
+                reject(HttpStatus.SC_LENGTH_REQUIRED, "Content-Length header is required");
+                return;
+            }
+        }
+        if (contentLength < 0) {
+            reject(HttpStatus.SC_BAD_REQUEST, "Invalid Content-Length header");
+            return;
+        }
+        if (contentLength > config.getNioMaxBodySize()) {
+            reject(HttpStatus.SC_REQUEST_TOO_LONG, "Request body is too large");
+            return;
+        }
+
+        int frameLength = headerEnd + (int) contentLength;
+        if (filled < frameLength) {
+            if (readBuffer.capacity() < frameLength) {
+                resize(frameLength);
+            }
+            return;
+        }
+
+        byte[] frame = Arrays.copyOf(readBuffer.array(), frameLength);
+        readBuffer.flip().position(frameLength);
+        readBuffer.compact();
+        if (readBuffer.capacity() > INITIAL_BUFFER_BYTES && readBuffer.position() <= INITIAL_BUFFER_BYTES) {
+            //Idle keep-alive connections go back to a small buffer after a request with a large body
+            resize(INITIAL_BUFFER_BYTES);
+        }
+        requestStartMillis = System.currentTimeMillis();
+
+        processing = true;
+        boolean lastRequest = ++servedRequests >= config.getMaxRequestsPerConnection();
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        try {
+            workers.execute(() -> process(frame, lastRequest));
+        } catch (RejectedExecutionException e) {
+            log.warn("Request rejected, worker queue is full");
+            reject(HttpStatus.SC_SERVICE_UNAVAILABLE, "Server is overloaded");
+        }
+    }
+
+    private void process(byte[] frame, boolean lastRequest) {
+        HttpResponse response;
+        boolean keepAlive = false;
+        try {
+            ByteArrayInputStream in = new ByteArrayInputStream(frame);
+            RequestLine requestLine = parser.parseRequestLine(in);
+            RawHttpHeaders headers = parser.parseHeaders(in, InvalidHttpRequest::new);
+            LazyBodyReader body = headers.contains("Content-Length")
+                    ? new LazyBodyReader(new FramedBody.ContentLength(in.available()), in)
+                    : null;
+            RawHttpRequest request = new RawHttpRequest(requestLine, headers, body, remoteAddress);
+            keepAlive = !lastRequest && httpUtils.isKeepAlive(request);
+            response = controller.route(request);
+        } catch (InvalidHttpRequest | IOException e) {
+            log.debug("Error occurred while parsing request: {}", e.getMessage());
+            response = httpUtils.buildExceptionResponse(HttpStatus.SC_BAD_REQUEST, e);
+        } catch (RuntimeException e) {
+            log.error("Error occurred while processing request", e);
+            keepAlive = false;
+            response = httpUtils.buildResponse(HttpStatus.SC_INTERNAL_SERVER_ERROR, INTERNAL_ERROR_BODY);
+        }
+        HttpResponse completed = response;
+        boolean close = !keepAlive;
+        if (completed.isStreaming()) {
+            stream(completed, close);
+            return;
+        }
+        eventLoop.execute(() -> write(completed, close));
+    }
+
+    /**
+     * Streams the response from the worker thread, which waits whenever the client falls behind.
+     * The event loop takes the connection back once the response is complete.
+     */
+    private void stream(HttpResponse response, boolean close) {
+        ChannelOutputStream out = new ChannelOutputStream(channel, () -> eventLoop.execute(this::awaitWritable),
+                config.getWriteTimeout().toMillis());
+        streamingOutput = out;
+        boolean completed = false;
+        try {
+            BufferedOutputStream buffered = new BufferedOutputStream(out, STREAM_BUFFER_BYTES);
+            HttpResponseWriter.forStream().writeStreamTo(buffered, response, !close);
+            buffered.flush();
+            completed = true;
+        } catch (IOException e) {
+            log.error("Error occurred while streaming response: {}", e.getMessage());
+        } finally {
+            streamingOutput = null;
+        }
+        boolean closeConnection = close || !completed;
+        eventLoop.execute(() -> {
+            if (!channel.isOpen()) {
+                return;
+            }
+            closeAfterWrite = closeConnection;
+            afterWrite();
+        });
+    }
+
+    private void awaitWritable() {
+        if (key.isValid()) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void reject(int httpStatus, String message) {
+        processing = true;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        write(httpUtils.buildResponse(httpStatus, "{ \"message\":\"" + message + "\"}"), true);
+    }
+
+    private void write(HttpResponse response, boolean close) {
+        if (!channel.isOpen()) {
+            return;
+        }
+        closeAfterWrite = close;
+        writeStartMillis = System.currentTimeMillis();
+        try {
+            writeBuffer = eventLoop.getResponseWriter().writeTo(channel, response, !close);
+        } catch (IOException e) {
+            log.debug("Error occurred while writing to client: {}", e.getMessage());
+            close();
+            return;
+        }
+        afterWrite();
+    }
+
+    private void flush() {
+        try {
+            channel.write(writeBuffer);
+        } catch (IOException e) {
+            log.debug("Error occurred while writing to client: {}", e.getMessage());
+            close();
+            return;
+        }
+        if (!writeBuffer.hasRemaining()) {
+            writeBuffer = null;
+        }
+        afterWrite();
+    }
+
+    private void afterWrite() {
+        if (writeBuffer != null) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        } else {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            if (closeAfterWrite) {
+                close();
+            } else {
+                //Continue with the next request, pipelined requests may already be buffered
+                processing = false;
+                lastActivityMillis = System.currentTimeMillis();
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                dispatch();
+            }
+        }
+    }
+
+    private void close() {
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.error(e.getMessage());
+        }
+    }
+
+    private void resize(int capacity) {
+        ByteBuffer resized = ByteBuffer.allocate(
+                Math.min(capacity, config.getMaxHeaderSize() + config.getNioMaxBodySize()));
+        readBuffer.flip();
+        resized.put(readBuffer);
+        readBuffer = resized;
+    }
+
+    private static int headerEnd(byte[] bytes, int length) {
+        for (int i = 3; i < length; i++) {
+            if (bytes[i] == '\n' && bytes[i - 1] == '\r' && bytes[i - 2] == '\n' && bytes[i - 3] == '\r') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static InetAddress remoteAddress(SocketChannel channel) {
+        try {
+            return ((InetSocketAddress) channel.getRemoteAddress()).getAddress();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
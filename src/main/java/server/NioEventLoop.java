@@ -0,0 +1,97 @@
+package server;
+
+import controller.RoutingController;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+
+@Slf4j
+class NioEventLoop implements Runnable {
+    private static final long IDLE_CHECK_INTERVAL_MILLIS = 1000;
+    private static final int WRITE_BUFFER_BYTES = 64 * 1024;
+
+    private final ServerConfig config;
+    private final RoutingController controller;
+    private final ExecutorService workers;
+    private final Selector selector;
+    private final Queue<Runnable> tasks;
+    private final HttpResponseWriter responseWriter;
+
+    NioEventLoop(ServerConfig config, RoutingController controller, ExecutorService workers) throws IOException {
+        this.config = config;
+        this.controller = controller;
+        this.workers = workers;
+        selector = Selector.open();
+        tasks = new ConcurrentLinkedQueue<>();
+        responseWriter = HttpResponseWriter.forChannel(WRITE_BUFFER_BYTES);
+    }
+
+    HttpResponseWriter getResponseWriter() {
+        return responseWriter;
+    }
+
+    void register(SocketChannel channel) {
+        execute(() -> {
+            try {
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                key.attach(new NioConnection(config, channel, key, this, controller, workers));
+            } catch (ClosedChannelException e) {
+                log.debug("Client disconnected before registration");
+            }
+        });
+    }
+
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        long lastIdleCheckMillis = System.currentTimeMillis();
+        while (selector.isOpen()) {
+            try {
+                selector.select(IDLE_CHECK_INTERVAL_MILLIS);
+            } catch (IOException e) {
+                log.error("Error occurred while selecting channels: {}", e.getMessage());
+                continue;
+            }
+
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                NioConnection connection = (NioConnection) key.attachment();
+                if (key.isValid() && key.isReadable()) {
+                    connection.onReadable();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.onWritable();
+                }
+            }
+
+            long nowMillis = System.currentTimeMillis();
+            if (nowMillis - lastIdleCheckMillis >= IDLE_CHECK_INTERVAL_MILLIS) {
+                lastIdleCheckMillis = nowMillis;
+                for (SelectionKey key : selector.keys()) {
+                    if (key.isValid() && key.attachment() != null) {
+                        ((NioConnection) key.attachment()).checkTimeouts(nowMillis);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package server;
+
+import controller.RoutingController;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking engine: connections are multiplexed over a few selector event loops
+ * and only complete requests are handed to the bounded worker pool.
+ */
+@Slf4j
+public class NioServerEngine implements ServerEngine {
+    private final ServerConfig config;
+    private final RoutingController controller;
+
+    public NioServerEngine(ServerConfig config, RoutingController controller) {
+        this.config = config;
+        this.controller = controller;
+    }
+
+    @Override
+    public void start() throws IOException {
+        AtomicInteger workerCounter = new AtomicInteger();
+        ExecutorService workers = new ThreadPoolExecutor(
+                config.getWorkerThreads(),
+                config.getWorkerThreads(),
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(config.getWorkerQueueSize()),
+                runnable -> new Thread(runnable, "worker-" + workerCounter.incrementAndGet())
+        );
+
+        NioEventLoop[] eventLoops = new NioEventLoop[config.getSelectorThreads()];
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new NioEventLoop(config, controller, workers);
+            new Thread(eventLoops[i], "selector-" + (i + 1)).start();
+        }
+
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(config.getPort()), config.getBacklog());
+            log.info("Server started on port {} using nio engine", config.getPort());
+
+            int next = 0;
+            while (serverChannel.isOpen()) {
+                SocketChannel clientChannel = serverChannel.accept();
+                log.debug("Client connected");
+                clientChannel.configureBlocking(false);
+                clientChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                eventLoops[next].register(clientChannel);
+                next = (next + 1) % eventLoops.length;
+            }
+        } finally {
+            workers.shutdown();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package server;
+
+import lombok.Getter;
+import utils.PropertiesLoader;
+
+import java.time.Duration;
+import java.util.Properties;
+
+@Getter
+public class ServerConfig {
+    private final int port;
+    private final String engine;
+    private final int backlog;
+    private final int selectorThreads;
+    private final int workerThreads;
+    private final int workerQueueSize;
+    private final Duration keepAliveTimeout;
+    private final int maxRequestsPerConnection;
+    private final Duration readTimeout;
+    private final Duration writeTimeout;
+    private final int maxHeaderSize;
+    private final int maxBodySize;
+    private final int nioMaxBodySize;
+
+    public ServerConfig() {
+        Properties serverProperties = PropertiesLoader.load("/server.properties");
+
+        port = Integer.parseInt(serverProperties.getProperty("server.port", "8080"));
+        engine = serverProperties.getProperty("server.engine", "nio");
+        backlog = Integer.parseInt(serverProperties.getProperty("server.backlog", "4096"));
+        selectorThreads = Integer.parseInt(serverProperties.getProperty("server.nio.selectors", "2"));
+        workerThreads = Integer.parseInt(serverProperties.getProperty("server.workers", "64"));
+        workerQueueSize = Integer.parseInt(serverProperties.getProperty("server.workers.queue", "1024"));
+        keepAliveTimeout = Duration.parse(serverProperties.getProperty("server.keepalive.timeout", "PT30S"));
+        maxRequestsPerConnection = Integer.parseInt(serverProperties.getProperty("server.keepalive.max-requests", "1000"));
+        readTimeout = Duration.parse(serverProperties.getProperty("server.request.read-timeout", "PT10S"));
+        writeTimeout = Duration.parse(serverProperties.getProperty("server.response.write-timeout", "PT30S"));
+        maxHeaderSize = Integer.parseInt(serverProperties.getProperty("server.request.max-header-size", "8192"));
+        maxBodySize = Integer.parseInt(serverProperties.getProperty("server.request.max-body-size", "1048576"));
+        nioMaxBodySize = Math.min(maxBodySize,
+                Integer.parseInt(serverProperties.getProperty("server.nio.max-body-size", "65536")));
+    }
+}
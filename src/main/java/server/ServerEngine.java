@@ -0,0 +1,7 @@
+package server;
+
+import java.io.IOException;
+
+public interface ServerEngine {
+    void start() throws IOException;
+}
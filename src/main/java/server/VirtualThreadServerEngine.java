@@ -0,0 +1,60 @@
+package server;
+
+import controller.RoutingController;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Blocking engine serving every connection on its own virtual thread.
+ * Virtual threads require Java 21. The build and the image target Java 17, so the engine refuses to start
+ * on them: a bounded platform thread pool would hold a thread per idle keep-alive connection instead.
+ */
+@Slf4j
+public class VirtualThreadServerEngine implements ServerEngine {
+    private final ServerConfig config;
+    private final RoutingController controller;
+
+    public VirtualThreadServerEngine(ServerConfig config, RoutingController controller) {
+        this.config = config;
+        this.controller = controller;
+    }
+
+    @Override
+    public void start() throws IOException {
+        ExecutorService executorService = newVirtualThreadExecutor();
+
+        try (ServerSocket serverSocket = new ServerSocket(config.getPort(), config.getBacklog())) {
+            log.info("Server started on port {} using virtual thread engine", config.getPort());
+
+            while (!serverSocket.isClosed()) {
+                Socket clientSocket = serverSocket.accept();
+                log.debug("Client connected");
+                try {
+                    executorService.execute(() -> controller.handleRequest(clientSocket));
+                } catch (RejectedExecutionException e) {
+                    log.warn("Connection rejected, all workers are busy");
+                    clientSocket.close();
+                }
+            }
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    private ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            throw new IllegalStateException("Virtual thread engine requires Java 21, this runtime is Java "
+                    + Runtime.version().feature() + ", use server.engine=nio", e);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Concurrent map of bounded size for caches and per-client state. Once it is full, one thread at a time sweeps it
+ * down to 3/4 of the maximum size: stale entries first, as the owner tells them, then the least recently used ones.
+ * The other threads keep reading and writing during a sweep, so the size can briefly go over the maximum.
+ */
+public class BoundedMap<K, V> {
+    //Entries are marked used at most once per interval, so a hot entry is not written on every read
+    private static final long USE_RESOLUTION_NANOS = 1_000_000;
+
+    private final int maxSize;
+    private final Predicate<V> stale;
+    private final LongAdder evictions;
+    private final Map<K, Node<V>> entries;
+    private final AtomicBoolean evicting;
+
+    /**
+     * @param stale entries that can be dropped first, such as expired ones
+     * @param evictions counter of dropped entries
+     */
+    public BoundedMap(int maxSize, Predicate<V> stale, LongAdder evictions) {
+        this.maxSize = maxSize;
+        this.stale = stale;
+        this.evictions = evictions;
+        entries = new ConcurrentHashMap<>();
+        evicting = new AtomicBoolean();
+    }
+
+    /**
+     * @return value of the key, marked as used, or null
+     */
+    public V get(K key) {
+        Node<V> node = entries.get(key);
+        if (node == null) {
+            return null;
+        }
+        node.use(System.nanoTime());
+        return node.value;
+    }
+
+    /**
+     * Sets the value of the key, sweeping the map first if it is full.
+     */
+    public void put(K key, V value) {
+        makeRoom();
+        entries.put(key, new Node<>(value, System.nanoTime()));
+    }
+
+    /**
+     * @return value of the key, created by the factory if there is none, sweeping the map first if it is full
+     */
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> factory) {
+        V value = get(key);
+        if (value != null) {
+            return value;
+        }
+        makeRoom();
+        long now = System.nanoTime();
+        return entries.computeIfAbsent(key, absent -> new Node<>(factory.apply(absent), now)).value;
+    }
+
+    /**
+     * Like {@link #computeIfAbsent(Object, Function)}, but only stale entries are dropped to make room,
+     * for state that must not be lost while it is in use.
+     * @return value of the key, or null if there is none and the map is full of entries that are not stale
+     */
+    public V computeIfAbsentWithoutEviction(K key, Function<? super K, ? extends V> factory) {
+        V value = get(key);
+        if (value != null) {
+            return value;
+        }
+        if (entries.size() >= maxSize) {
+            evictStale();
+            if (entries.size() >= maxSize) {
+                return get(key);
+            }
+        }
+        long now = System.nanoTime();
+        return entries.computeIfAbsent(key, absent -> new Node<>(factory.apply(absent), now)).value;
+    }
+
+    /**
+     * Removes the key only while it still has the value.
+     */
+    public boolean remove(K key, V value) {
+        Node<V> node = entries.get(key);
+        return node != null && node.value.equals(value) && entries.remove(key, node);
+    }
+
+    /**
+     * Drops the stale entries whether the map is full or not, unless another thread is sweeping it already.
+     */
+    public void evictStale() {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            removeStale();
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private void makeRoom() {
+        if (entries.size() < maxSize || !evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            removeStale();
+            removeLeastRecentlyUsed(maxSize * 3 / 4);
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private void removeStale() {
+        entries.values().removeIf(node -> {
+            boolean dropped = stale.test(node.value);
+            if (dropped) {
+                evictions.increment();
+            }
+            return dropped;
+        });
+    }
+
+    private void removeLeastRecentlyUsed(int targetSize) {
+        //Last use of the excess entry that is used most recently is the cut, anything used before it is dropped
+        long[] usedAt = new long[entries.size()];
+        int count = 0;
+        for (Iterator<Node<V>> iterator = entries.values().iterator(); count < usedAt.length && iterator.hasNext(); ) {
+            usedAt[count++] = iterator.next().usedAt;
+        }
+        int excess = count - targetSize;
+        if (excess <= 0) {
+            return;
+        }
+        Arrays.sort(usedAt, 0, count);
+        long cut = usedAt[excess - 1];
+
+        Iterator<Node<V>> iterator = entries.values().iterator();
+        while (entries.size() > targetSize && iterator.hasNext()) {
+            if (iterator.next().usedAt <= cut) {
+                iterator.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    private static final class Node<V> {
+        private final V value;
+        private volatile long usedAt;
+
+        private Node(V value, long usedAt) {
+            this.value = value;
+            this.usedAt = usedAt;
+        }
+
+        private void use(long now) {
+            if (now - usedAt > USE_RESOLUTION_NANOS) {
+                usedAt = now;
+            }
+        }
+    }
+}
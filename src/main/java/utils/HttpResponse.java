@@ -0,0 +1,66 @@
+package utils;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+@Getter
+public class HttpResponse {
+    private static final byte[] EMPTY_BODY = new byte[0];
+
+    private final int status;
+    private final byte[] body;
+    private final String contentType;
+    private final StreamingBody streamingBody;
+    private final boolean gzip;
+    @Getter(AccessLevel.NONE)
+    private final Runnable completion;
+
+    public HttpResponse(int status, byte[] body) {
+        this(status, body, null, null, false, null);
+    }
+
+    /**
+     * Response with a body of another content type than JSON.
+     */
+    public HttpResponse(int status, byte[] body, String contentType) {
+        this(status, body, contentType, null, false, null);
+    }
+
+    private HttpResponse(int status, byte[] body, String contentType, StreamingBody streamingBody, boolean gzip,
+                         Runnable completion) {
+        this.status = status;
+        this.body = body;
+        this.contentType = contentType;
+        this.streamingBody = streamingBody;
+        this.gzip = gzip;
+        this.completion = completion;
+    }
+
+    /**
+     * Response sent with chunked transfer encoding as its body is written, optionally gzip compressed.
+     */
+    public static HttpResponse streaming(int status, String contentType, boolean gzip, StreamingBody streamingBody) {
+        return new HttpResponse(status, EMPTY_BODY, contentType, streamingBody, gzip, null);
+    }
+
+    /**
+     * Same response that runs the completion once it is written or its writing fails,
+     * e.g. to hold a resource while a streamed body is produced.
+     */
+    public HttpResponse onComplete(Runnable completion) {
+        return new HttpResponse(status, body, contentType, streamingBody, gzip, completion);
+    }
+
+    /**
+     * Called by the writer of a streamed response when the body is written or has failed.
+     */
+    public void complete() {
+        if (completion != null) {
+            completion.run();
+        }
+    }
+
+    public boolean isStreaming() {
+        return streamingBody != null;
+    }
+}
@@ -1,35 +1,72 @@
 package utils;
 
-import org.apache.hc.core5.http.impl.EnglishReasonPhraseCatalog;
 import rawhttp.core.HttpVersion;
-import rawhttp.core.RawHttp;
-import rawhttp.core.RawHttpResponse;
-import rawhttp.core.body.StringBody;
+import rawhttp.core.RawHttpRequest;
 
-import java.util.Locale;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
 
 public class HttpUtils {
-    public RawHttpResponse buildResponse(Integer httpStatus, String body) {
-        StringBuilder builder = new StringBuilder();
-        builder
-                .append(HttpVersion.HTTP_1_1)
-                .append(" ")
-                .append(httpStatus)
-                .append(" ")
-                .append(EnglishReasonPhraseCatalog.INSTANCE.getReason(httpStatus, Locale.ENGLISH))
-                .append("\n")
-                .append("Content-Type: application/json")
-                .append("\n");
-
-        RawHttp http = new RawHttp();
-        RawHttpResponse response = http.parseResponse(builder.toString());
-        if (body != null)
-            response = response.withBody(new StringBody(body));
-        return response;
+    private static final byte[] EMPTY_BODY = new byte[0];
+
+    public HttpResponse buildResponse(Integer httpStatus, String body) {
+        return buildResponse(httpStatus, body != null ? body.getBytes(StandardCharsets.UTF_8) : EMPTY_BODY);
+    }
+
+    public HttpResponse buildResponse(Integer httpStatus, byte[] body) {
+        return new HttpResponse(httpStatus, body);
     }
 
-    public RawHttpResponse buildExceptionResponse(Integer httpStatus, Exception exception) {
+    public HttpResponse buildExceptionResponse(Integer httpStatus, Exception exception) {
         String body = "{ \"message\":\"" + exception.getMessage() + "\"}";
         return buildResponse(httpStatus, body);
     }
+
+    /**
+     * @return query parameters of the request, the first value of a repeated parameter wins
+     */
+    public Map<String, String> getQueryParameters(RawHttpRequest request) {
+        Map<String, String> parameters = new HashMap<>();
+        String query = request.getUri().getRawQuery();
+        if (query == null || query.isEmpty()) {
+            return parameters;
+        }
+        for (String pair : query.split("&")) {
+            int separator = pair.indexOf('=');
+            String name = separator < 0 ? pair : pair.substring(0, separator);
+            String value = separator < 0 ? "" : pair.substring(separator + 1);
+            parameters.putIfAbsent(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+    public boolean acceptsGzip(RawHttpRequest request) {
+        for (String value : request.getHeaders().get("Accept-Encoding")) {
+            for (String token : value.split(",")) {
+                String coding = token.trim();
+                int parameters = coding.indexOf(';');
+                String name = parameters < 0 ? coding : coding.substring(0, parameters).trim();
+                if ("gzip".equalsIgnoreCase(name)) {
+                    return parameters < 0 || !coding.substring(parameters).replace(" ", "").startsWith(";q=0");
+                }
+            }
+        }
+        return false;
+    }
+
+    public boolean isKeepAlive(RawHttpRequest request) {
+        boolean keepAlive = request.getStartLine().getHttpVersion() != HttpVersion.HTTP_1_0;
+        for (String value : request.getHeaders().get("Connection")) {
+            for (String token : value.split(",")) {
+                if ("close".equalsIgnoreCase(token.trim())) {
+                    return false;
+                } else if ("keep-alive".equalsIgnoreCase(token.trim())) {
+                    keepAlive = true;
+                }
+            }
+        }
+        return keepAlive;
+    }
 }
@@ -3,12 +3,13 @@ package utils;
 import io.jsonwebtoken.*;
 import io.jsonwebtoken.io.Decoders;
 import io.jsonwebtoken.security.Keys;
+import io.jsonwebtoken.security.SignatureException;
 import lombok.extern.slf4j.Slf4j;
+import metrics.LatencyHistogram;
+import metrics.Metrics;
 import model.User;
 
 import javax.crypto.SecretKey;
-import java.io.IOException;
-import java.io.InputStream;
 import java.time.Duration;
 import java.util.*;
 
@@ -18,19 +19,24 @@ public class JwtTokenUtils {
     private final SecretKey jwtRefreshSecret;
     private final Duration jwtAccessLifetime;
     private final Duration jwtRefreshLifetime;
+    private final JwtParser jwtAccessParser;
+    private final JwtParser jwtRefreshParser;
+    private final VerifiedTokenCache tokenCache;
+    private final LatencyHistogram verificationLatency;
 
     public JwtTokenUtils() {
-        Properties jwtProperties = new Properties();
-        try (InputStream in = getClass().getResourceAsStream("/jwt.properties")) {
-            jwtProperties.load(in);
-        } catch (IOException e) {
-            log.error("Error occurred while reading database properties file: " + e.getMessage());
-        }
+        Properties jwtProperties = PropertiesLoader.load("/jwt.properties");
 
         jwtAccessSecret = Keys.hmacShaKeyFor(Decoders.BASE64.decode(jwtProperties.getProperty("jwt.secret.access")));
         jwtRefreshSecret = Keys.hmacShaKeyFor(Decoders.BASE64.decode(jwtProperties.getProperty("jwt.secret.refresh")));
         jwtAccessLifetime = Duration.parse(jwtProperties.getProperty("jwt.lifetime.access"));
         jwtRefreshLifetime = Duration.parse(jwtProperties.getProperty("jwt.lifetime.refresh"));
+        jwtAccessParser = Jwts.parser().verifyWith(jwtAccessSecret).build();
+        jwtRefreshParser = Jwts.parser().verifyWith(jwtRefreshSecret).build();
+        tokenCache = Boolean.parseBoolean(jwtProperties.getProperty("jwt.cache.enabled"))
+                ? new VerifiedTokenCache(Integer.parseInt(jwtProperties.getProperty("jwt.cache.max-size", "100000")))
+                : null;
+        verificationLatency = Metrics.timer("jwt_verification_duration_seconds", "Time spent parsing and verifying a jwt");
     }
 
 
@@ -61,48 +67,75 @@ public class JwtTokenUtils {
     }
 
     public boolean validateAccessToken(String accessToken) {
-        return validateToken(accessToken, jwtAccessSecret);
+        return verifyAccessToken(accessToken).isValid();
     }
 
     public boolean validateRefreshToken(String refreshToken) {
-        return validateToken(refreshToken, jwtRefreshSecret);
+        return verifyRefreshToken(refreshToken).isValid();
     }
 
-    private boolean validateToken(String token, SecretKey secret) {
-        try {
-            Jwts.parser().verifyWith(secret).build()
-                    .parseSignedClaims(token)
-                    .getPayload();
-            return true;
-        } catch (ExpiredJwtException e) {
-            log.error("Token expired: {}", e.getMessage());
-        } catch (UnsupportedJwtException e) {
-            log.error("Unsupported jwt: {}", e.getMessage());
-        } catch (MalformedJwtException e) {
-            log.error("Malformed jwt: {}", e.getMessage());
-        } catch (SecurityException e) {
-            log.error("Invalid signature: {}", e.getMessage());
-        } catch (Exception e) {
-            log.error("Invalid token: {}", e.getMessage());
+    public TokenVerification verifyAccessToken(String accessToken) {
+        if (tokenCache == null) {
+            return verifyToken(accessToken, jwtAccessParser);
         }
-        return false;
+        TokenVerification verification = tokenCache.get(accessToken);
+        if (verification == null) {
+            verification = verifyToken(accessToken, jwtAccessParser);
+            if (verification.isValid()) {
+                tokenCache.put(accessToken, verification);
+            }
+        }
+        return verification;
     }
 
-    public String getUsername(String token) {
-        return getAccessClaims(token).getSubject();
+    /**
+     * @return cache of verified access tokens or null if caching is disabled
+     */
+    public VerifiedTokenCache getTokenCache() {
+        return tokenCache;
     }
 
-    private Claims getAccessClaims(String token) {
-        return getClaims(token, jwtAccessSecret);
+    public TokenVerification verifyRefreshToken(String refreshToken) {
+        return verifyToken(refreshToken, jwtRefreshParser);
     }
 
-    public Claims getRefreshClaims(String token) {
-        return getClaims(token, jwtRefreshSecret);
+    private TokenVerification verifyToken(String token, JwtParser parser) {
+        //Rejecting obviously malformed tokens without paying for a parser exception
+        if (!isCompactJws(token)) {
+            log.debug("Malformed jwt");
+            return TokenVerification.invalid(TokenVerification.Failure.MALFORMED);
+        }
+        long start = System.nanoTime();
+        try {
+            Claims claims = parser.parseSignedClaims(token).getPayload();
+            return TokenVerification.valid(claims.getSubject(), claims.getExpiration().getTime());
+        } catch (ExpiredJwtException e) {
+            log.debug("Token expired: {}", e.getMessage());
+            return TokenVerification.invalid(TokenVerification.Failure.EXPIRED);
+        } catch (UnsupportedJwtException e) {
+            log.debug("Unsupported jwt: {}", e.getMessage());
+            return TokenVerification.invalid(TokenVerification.Failure.UNSUPPORTED);
+        } catch (MalformedJwtException e) {
+            log.debug("Malformed jwt: {}", e.getMessage());
+            return TokenVerification.invalid(TokenVerification.Failure.MALFORMED);
+        } catch (SignatureException e) {
+            log.debug("Invalid signature: {}", e.getMessage());
+            return TokenVerification.invalid(TokenVerification.Failure.INVALID_SIGNATURE);
+        } catch (Exception e) {
+            log.debug("Invalid token: {}", e.getMessage());
+            return TokenVerification.invalid(TokenVerification.Failure.INVALID);
+        } finally {
+            verificationLatency.recordSince(start);
+        }
     }
 
-    private Claims getClaims(String token, SecretKey secret) {
-        return Jwts.parser().verifyWith(secret).build()
-                .parseSignedClaims(token)
-                .getPayload();
+    private boolean isCompactJws(String token) {
+        if (token == null || token.isEmpty()) {
+            return false;
+        }
+        int firstDot = token.indexOf('.');
+        int secondDot = token.indexOf('.', firstDot + 1);
+        return firstDot > 0 && secondDot > firstDot + 1 && secondDot < token.length() - 1
+                && token.indexOf('.', secondDot + 1) < 0;
     }
-}
\ No newline at end of file
+}
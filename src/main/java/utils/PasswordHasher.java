@@ -0,0 +1,121 @@
+package utils;
+
+import exception.ServiceOverloadedException;
+import lombok.extern.slf4j.Slf4j;
+import metrics.LatencyHistogram;
+import metrics.Metrics;
+import org.mindrot.jbcrypt.BCrypt;
+
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs BCrypt on its own CPU sized pool, so a burst of sign ins cannot starve other requests.
+ * When the pool queue is full requests are rejected right away instead of waiting.
+ */
+@Slf4j
+public class PasswordHasher {
+    private final int logRounds;
+    private final ThreadPoolExecutor executor;
+    private final LatencyHistogram hashLatency;
+    private final LatencyHistogram checkLatency;
+    private final LongAdder rejections;
+
+    public PasswordHasher() {
+        Properties authProperties = PropertiesLoader.load("/auth.properties");
+
+        logRounds = Integer.parseInt(authProperties.getProperty("bcrypt.log-rounds", "10"));
+        int threads = Integer.parseInt(authProperties.getProperty("bcrypt.threads", "0"));
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        int queueSize = Integer.parseInt(authProperties.getProperty("bcrypt.queue", "64"));
+
+        AtomicInteger counter = new AtomicInteger();
+        executor = new ThreadPoolExecutor(
+                threads,
+                threads,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "bcrypt-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+        );
+        hashLatency = Metrics.timer("password_hash_duration_seconds", "Time spent in BCrypt, queueing excluded",
+                "operation", "hash");
+        checkLatency = Metrics.timer("password_hash_duration_seconds", "Time spent in BCrypt, queueing excluded",
+                "operation", "check");
+        rejections = Metrics.counter("password_hash_rejections_total", "Password hashing refused over a full queue");
+        Metrics.gauge("password_hash_queue_depth", "Password hashing waiting for a thread", this::getQueueDepth);
+    }
+
+    public String hash(String password) {
+        return run(() -> BCrypt.hashpw(password, BCrypt.gensalt(logRounds)), hashLatency);
+    }
+
+    public boolean check(String password, String hashedPassword) {
+        return run(() -> BCrypt.checkpw(password, hashedPassword), checkLatency);
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveThreads() {
+        return executor.getActiveCount();
+    }
+
+    public long getHashes() {
+        return hashLatency.getCount() + checkLatency.getCount();
+    }
+
+    public long getHashNanos() {
+        return hashLatency.getSumNanos() + checkLatency.getSumNanos();
+    }
+
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    private <T> T run(Callable<T> task, LatencyHistogram latency) {
+        Future<T> future;
+        try {
+            future = executor.submit(() -> {
+                long start = System.nanoTime();
+                try {
+                    return task.call();
+                } finally {
+                    latency.recordSince(start);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejections.increment();
+            log.debug("Password hashing rejected, {} requests are waiting", getQueueDepth());
+            throw new ServiceOverloadedException("Too many authentication requests, try again later");
+        }
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new ServiceOverloadedException("Password hashing was interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Reads a properties file from the classpath. Any setting can be overridden per deployment without rebuilding the jar:
+ * a system property with the same name wins, then an environment variable named after the setting in upper case
+ * with other characters replaced by underscores, e.g. datasource.pool.maximum-size by DATASOURCE_POOL_MAXIMUM_SIZE.
+ */
+@Slf4j
+public final class PropertiesLoader {
+    private PropertiesLoader() {
+    }
+
+    public static Properties load(String resource) {
+        Properties properties = new OverridableProperties();
+        try (InputStream in = PropertiesLoader.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IOException("resource not found");
+            }
+            properties.load(in);
+        } catch (IOException e) {
+            log.error("Error occurred while reading properties file {}: {}", resource, e.getMessage());
+        }
+        return properties;
+    }
+
+    static String environmentName(String key) {
+        StringBuilder name = new StringBuilder(key.length());
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            name.append(Character.isLetterOrDigit(c) ? c : '_');
+        }
+        return name.toString().toUpperCase(Locale.ROOT);
+    }
+
+    private static final class OverridableProperties extends Properties {
+        @Override
+        public String getProperty(String key) {
+            String value = System.getProperty(key);
+            if (value == null) {
+                value = System.getenv(environmentName(key));
+            }
+            return value != null ? value : super.getProperty(key);
+        }
+
+        @Override
+        public String getProperty(String key, String defaultValue) {
+            String value = getProperty(key);
+            return value != null ? value : defaultValue;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Response body written piece by piece while it is produced, instead of being built in memory first.
+ * Implementations must not close the stream.
+ */
+@FunctionalInterface
+public interface StreamingBody {
+    void writeTo(OutputStream out) throws IOException;
+}
@@ -0,0 +1,56 @@
+package utils;
+
+/**
+ * Outcome of a token verification: verified subject and expiration or the reason the token was rejected.
+ */
+public class TokenVerification {
+    public enum Failure {
+        EXPIRED,
+        UNSUPPORTED,
+        MALFORMED,
+        INVALID_SIGNATURE,
+        INVALID
+    }
+
+    private static final TokenVerification[] FAILURES = new TokenVerification[Failure.values().length];
+
+    static {
+        for (Failure failure : Failure.values()) {
+            FAILURES[failure.ordinal()] = new TokenVerification(null, 0, failure);
+        }
+    }
+
+    private final String subject;
+    private final long expiresAtMillis;
+    private final Failure failure;
+
+    private TokenVerification(String subject, long expiresAtMillis, Failure failure) {
+        this.subject = subject;
+        this.expiresAtMillis = expiresAtMillis;
+        this.failure = failure;
+    }
+
+    public static TokenVerification valid(String subject, long expiresAtMillis) {
+        return new TokenVerification(subject, expiresAtMillis, null);
+    }
+
+    public static TokenVerification invalid(Failure failure) {
+        return FAILURES[failure.ordinal()];
+    }
+
+    public boolean isValid() {
+        return failure == null;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public long getExpiresAtMillis() {
+        return expiresAtMillis;
+    }
+
+    public Failure getFailure() {
+        return failure;
+    }
+}
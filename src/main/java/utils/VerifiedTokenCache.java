@@ -0,0 +1,100 @@
+package utils;
+
+import metrics.Metrics;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of verified access tokens keyed by SHA-256 digest of the token.
+ * Entries never outlive the token they were created from.
+ */
+public class VerifiedTokenCache {
+    private final BoundedMap<Digest, TokenVerification> entries;
+    private final ThreadLocal<MessageDigest> digests;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+
+    public VerifiedTokenCache(int maxSize) {
+        digests = ThreadLocal.withInitial(VerifiedTokenCache::sha256);
+        hits = Metrics.counter("cache_hits_total", "Cache lookups answered from the cache", "cache", "token");
+        misses = Metrics.counter("cache_misses_total", "Cache lookups not found in the cache", "cache", "token");
+        evictions = Metrics.counter("cache_evictions_total", "Entries dropped to keep a cache bounded", "cache", "token");
+        //Expired tokens are dropped first, then the least recently used ones
+        entries = new BoundedMap<>(maxSize,
+                verification -> verification.getExpiresAtMillis() <= System.currentTimeMillis(), evictions);
+        Metrics.gauge("cache_size", "Entries in a cache", this::getSize, "cache", "token");
+    }
+
+    public TokenVerification get(String token) {
+        Digest digest = digest(token);
+        TokenVerification verification = entries.get(digest);
+        if (verification == null) {
+            misses.increment();
+            return null;
+        }
+        if (verification.getExpiresAtMillis() <= System.currentTimeMillis()) {
+            entries.remove(digest, verification);
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return verification;
+    }
+
+    public void put(String token, TokenVerification verification) {
+        entries.put(digest(token), verification);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public int getSize() {
+        return entries.size();
+    }
+
+    private Digest digest(String token) {
+        return new Digest(digests.get().digest(token.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Digest {
+        private final byte[] bytes;
+        private final int hash;
+
+        private Digest(byte[] bytes) {
+            this.bytes = bytes;
+            hash = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Digest && Arrays.equals(bytes, ((Digest) other).bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package dao;
+
+import exception.InsufficientBalanceException;
+import model.Account;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InMemoryAccountDaoTest {
+    private static final int ACCOUNTS = 16;
+    private static final int THREADS = 8;
+    private static final int TRANSFERS_PER_THREAD = 20_000;
+    private static final long INITIAL_BALANCE = 50000;
+
+    @AfterEach
+    void tearDown() {
+        System.clearProperty("account.memory.lock-stripes");
+        System.clearProperty("idempotency.memory.max-size");
+    }
+
+    @Test
+    void concurrentTransfersKeepTheTotalAndNeverOverdraw() throws Exception {
+        //Fewer stripes than accounts, so unrelated transfers share locks and some accounts share a stripe
+        System.setProperty("account.memory.lock-stripes", "5");
+        InMemoryAccountDao dao = new InMemoryAccountDao(new InMemoryTransactionDao());
+        for (int i = 0; i < ACCOUNTS; i++) {
+            dao.open(i + 1, username(i));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            workers.add(executor.submit(() -> {
+                start.await();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+                    int sender = random.nextInt(ACCOUNTS);
+                    //Neighbours both ways, so transfers in opposite directions between the same accounts race
+                    int receiver = random.nextBoolean()
+                            ? (sender + 1) % ACCOUNTS
+                            : random.nextInt(ACCOUNTS);
+                    long amount = 1 + random.nextInt((int) INITIAL_BALANCE / 4);
+                    try {
+                        if (random.nextBoolean()) {
+                            dao.transferByUsername(username(sender), username(receiver), amount, null);
+                        } else {
+                            dao.transferByAccountId((long) sender + 1, (long) receiver + 1, amount);
+                        }
+                    } catch (InsufficientBalanceException e) {
+                        //Expected once balances drift apart
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> worker : workers) {
+            worker.get(2, TimeUnit.MINUTES);
+        }
+        executor.shutdown();
+
+        long total = 0;
+        for (int i = 0; i < ACCOUNTS; i++) {
+            Account account = dao.getByUsername(username(i)).orElseThrow();
+            assertTrue(account.getBalance() >= 0, username(i) + " is overdrawn: " + account.getBalance());
+            total += account.getBalance();
+        }
+        assertEquals(ACCOUNTS * INITIAL_BALANCE, total);
+    }
+
+    @Test
+    void repeatedKeyMovesMoneyOnce() {
+        InMemoryAccountDao dao = new InMemoryAccountDao(new InMemoryTransactionDao());
+        dao.open(1, "sender");
+        dao.open(2, "receiver");
+
+        long first = dao.transferByUsername("sender", "receiver", 100L, "key");
+        long retry = dao.transferByUsername("sender", "receiver", 100L, "key");
+
+        assertEquals(INITIAL_BALANCE - 100, first);
+        assertEquals(first, retry);
+        assertEquals(INITIAL_BALANCE + 100, dao.getByUsername("receiver").orElseThrow().getBalance());
+    }
+
+    @Test
+    void idempotencyKeysAreBounded() {
+        System.setProperty("idempotency.memory.max-size", "100");
+        InMemoryAccountDao dao = new InMemoryAccountDao(new InMemoryTransactionDao());
+        dao.open(1, "sender");
+        dao.open(2, "receiver");
+
+        for (int i = 0; i < 1_000; i++) {
+            dao.transferByUsername("sender", "receiver", 1L, "key " + i);
+        }
+
+        assertTrue(dao.getIdempotencyKeyCount() <= 100, "Keys kept: " + dao.getIdempotencyKeyCount());
+    }
+
+    private static String username(int index) {
+        return "user" + index;
+    }
+}
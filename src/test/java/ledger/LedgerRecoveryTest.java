@@ -0,0 +1,221 @@
+package ledger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class LedgerRecoveryTest {
+    private static final List<String> PROPERTIES = List.of("ledger.directory", "ledger.snapshot.interval",
+            "ledger.wal.segment-size");
+
+    @TempDir
+    Path directory;
+
+    @BeforeEach
+    void setUp() {
+        System.setProperty("ledger.directory", directory.toString());
+        System.setProperty("ledger.snapshot.interval", "PT1H");
+        System.setProperty("ledger.wal.segment-size", String.valueOf(64 * WriteAheadLog.RECORD_SIZE));
+    }
+
+    @AfterEach
+    void tearDown() {
+        PROPERTIES.forEach(System::clearProperty);
+    }
+
+    @Test
+    void balancesOfTransfersAreRecoveredFromTheLog() throws Exception {
+        Ledger ledger = newLedger();
+        ledger.load(1, 1_000);
+        ledger.load(2, 500);
+        for (int i = 0; i < 100; i++) {
+            transfer(ledger, i % 2 == 0 ? 1 : 2, i % 2 == 0 ? 2 : 1, i + 1);
+        }
+        long first = ledger.getBalance(1);
+        long second = ledger.getBalance(2);
+        ledger.close();
+
+        Ledger recovered = newLedger();
+        try {
+            assertEquals(first, recovered.getBalance(1));
+            assertEquals(second, recovered.getBalance(2));
+            assertEquals(1_500, first + second);
+        } finally {
+            recovered.close();
+        }
+    }
+
+    @Test
+    void snapshotIsLoadedAndOnlyTheLogAfterItIsApplied() throws Exception {
+        new SnapshotStore(directory).write(2, new long[]{1, 2, 3}, new long[]{70, 30, 5}, 3);
+        WriteAheadLog wal = new WriteAheadLog(directory, 64 * WriteAheadLog.RECORD_SIZE);
+        wal.open(1);
+        //Records up to the snapshot carry stale balances, they must not overwrite it
+        wal.append(new LedgerEntry(1, 1, 2, 10, 999, 999, 0, 0));
+        wal.append(new LedgerEntry(2, 2, 1, 10, 999, 999, 0, 0));
+        wal.append(new LedgerEntry(3, 1, 2, 20, 50, 50, 0, 0));
+        wal.close();
+
+        Ledger ledger = newLedger();
+        try {
+            assertEquals(50, ledger.getBalance(1));
+            assertEquals(50, ledger.getBalance(2));
+            assertEquals(5, ledger.getBalance(3));
+
+            transfer(ledger, 3, 1, 5);
+        } finally {
+            ledger.close();
+        }
+
+        //The transfer after recovery continues the sequence, so it is replayed next time
+        Ledger recovered = newLedger();
+        try {
+            assertEquals(55, recovered.getBalance(1));
+            assertEquals(0, recovered.getBalance(3));
+        } finally {
+            recovered.close();
+        }
+    }
+
+    @Test
+    void snapshotWrittenByTheLedgerIsUsedWithTheLogSuffix() throws Exception {
+        System.setProperty("ledger.snapshot.interval", "PT0S");
+        Ledger ledger = newLedger();
+        ledger.load(1, 1_000);
+        ledger.load(2, 0);
+        transfer(ledger, 1, 2, 100);
+        awaitSnapshot();
+        System.setProperty("ledger.snapshot.interval", "PT1H");
+        ledger.close();
+
+        Ledger withSuffix = newLedger();
+        transfer(withSuffix, 1, 2, 50);
+        withSuffix.close();
+
+        Ledger recovered = newLedger();
+        try {
+            assertEquals(850, recovered.getBalance(1));
+            assertEquals(150, recovered.getBalance(2));
+        } finally {
+            recovered.close();
+        }
+    }
+
+    @Test
+    void transferTornByACrashIsNotRecovered() throws Exception {
+        Ledger ledger = newLedger();
+        ledger.load(1, 1_000);
+        ledger.load(2, 0);
+        transfer(ledger, 1, 2, 100);
+        transfer(ledger, 1, 2, 200);
+        ledger.close();
+
+        //Checksum of the second record
+        Path segment = segments().get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(Integer.BYTES), 2L * WriteAheadLog.RECORD_SIZE - Integer.BYTES);
+        }
+
+        Ledger recovered = newLedger();
+        try {
+            assertEquals(900, recovered.getBalance(1));
+            assertEquals(100, recovered.getBalance(2));
+        } finally {
+            recovered.close();
+        }
+    }
+
+    @Test
+    void idempotencyClaimIsLoggedWithItsTransfer() throws Exception {
+        Ledger ledger = newLedger();
+        ledger.load(1, 1_000);
+        ledger.load(2, 0);
+        ledger.transfer(1, 2, 100, 42).get(10, TimeUnit.SECONDS);
+        transfer(ledger, 1, 2, 100);
+        ledger.close();
+
+        List<LedgerEntry> replayed = new ArrayList<>();
+        new WriteAheadLog(directory, 64 * WriteAheadLog.RECORD_SIZE).replay(replayed::add);
+
+        assertEquals(2, replayed.size());
+        assertEquals(42, replayed.get(0).getClaimId());
+        assertEquals(0, replayed.get(1).getClaimId());
+    }
+
+    @Test
+    void accountsOnlyLoadedAreNotInTheLog() throws Exception {
+        Ledger ledger = newLedger();
+        ledger.load(7, 1_000);
+        assertEquals(1_000, awaitBalance(ledger, 7));
+        ledger.close();
+
+        Ledger recovered = newLedger();
+        try {
+            //Balances of accounts without transfers are read from the database again
+            assertNull(recovered.getBalance(7));
+        } finally {
+            recovered.close();
+        }
+    }
+
+    private Ledger newLedger() throws IOException {
+        LedgerConfig config = new LedgerConfig();
+        return new Ledger(config, new LedgerExporter(null, config, Long.MAX_VALUE));
+    }
+
+    private static void transfer(Ledger ledger, long sender, long receiver, long amount)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        ledger.transfer(sender, receiver, amount).get(10, TimeUnit.SECONDS);
+    }
+
+    private static long awaitBalance(Ledger ledger, long accountId) throws InterruptedException {
+        for (int i = 0; i < 1_000; i++) {
+            Long balance = ledger.getBalance(accountId);
+            if (balance != null) {
+                return balance;
+            }
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        throw new AssertionError("Account " + accountId + " was not loaded");
+    }
+
+    private void awaitSnapshot() throws IOException, InterruptedException {
+        for (int i = 0; i < 1_000; i++) {
+            try (Stream<Path> files = Files.list(directory)) {
+                if (files.anyMatch(file -> file.getFileName().toString().endsWith(".bin"))) {
+                    return;
+                }
+            }
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        throw new AssertionError("Snapshot was not written");
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> segments = files.filter(file -> file.getFileName().toString().startsWith("wal-"))
+                    .sorted().collect(Collectors.toList());
+            assertFalse(segments.isEmpty());
+            return segments;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package ledger;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LongLongMapTest {
+    private static final long MISSING = Long.MIN_VALUE;
+
+    @Test
+    void keepsEveryEntryWhileGrowingFromTheSmallestTable() {
+        LongLongMap map = new LongLongMap(1);
+        for (long key = 1; key <= 100_000; key++) {
+            map.put(key, -key);
+        }
+
+        assertEquals(100_000, map.size());
+        for (long key = 1; key <= 100_000; key++) {
+            assertTrue(map.containsKey(key));
+            assertEquals(-key, map.get(key, MISSING));
+        }
+        assertFalse(map.containsKey(100_001));
+        assertEquals(MISSING, map.get(100_001, MISSING));
+    }
+
+    @Test
+    void keysOfTheSameBucketSurviveRehashing() {
+        LongLongMap map = new LongLongMap(8);
+        //Multiples of a large power of two share their low bits, so they probe through the same slots
+        long stride = 1L << 32;
+        for (long i = 1; i <= 5_000; i++) {
+            map.put(i * stride, i);
+        }
+
+        assertEquals(5_000, map.size());
+        for (long i = 1; i <= 5_000; i++) {
+            assertEquals(i, map.get(i * stride, MISSING));
+        }
+    }
+
+    @Test
+    void replacingAValueKeepsTheSize() {
+        LongLongMap map = new LongLongMap(8);
+        map.put(42, 1);
+        map.put(42, 2);
+
+        assertEquals(1, map.size());
+        assertEquals(2, map.get(42, MISSING));
+    }
+
+    @Test
+    void forEachVisitsEveryEntryOnce() {
+        LongLongMap map = new LongLongMap(4);
+        long expectedSum = 0;
+        for (long key = 1; key <= 1_000; key++) {
+            map.put(key, key * 3);
+            expectedSum += key + key * 3;
+        }
+
+        long[] visited = new long[2];
+        map.forEach((key, value) -> {
+            visited[0]++;
+            visited[1] += key + value;
+        });
+
+        assertEquals(1_000, visited[0]);
+        assertEquals(expectedSum, visited[1]);
+    }
+
+    @Test
+    void rejectsKeysThatAreNotPositive() {
+        LongLongMap map = new LongLongMap(8);
+
+        assertThrows(IllegalArgumentException.class, () -> map.put(0, 1));
+        assertThrows(IllegalArgumentException.class, () -> map.put(-1, 1));
+    }
+}
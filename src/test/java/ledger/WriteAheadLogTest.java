@@ -0,0 +1,163 @@
+package ledger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class WriteAheadLogTest {
+    private static final int RECORDS_PER_SEGMENT = 10;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void replaysEveryRecordInOrderAcrossSegments() throws IOException {
+        write(1, 35);
+
+        List<LedgerEntry> replayed = new ArrayList<>();
+        long lastSeq = newLog().replay(replayed::add);
+
+        assertEquals(35, lastSeq);
+        assertEquals(35, replayed.size());
+        for (int i = 0; i < replayed.size(); i++) {
+            assertEntry(i + 1, replayed.get(i));
+        }
+    }
+
+    @Test
+    void emptyLogReplaysNothing() throws IOException {
+        List<LedgerEntry> replayed = new ArrayList<>();
+
+        assertEquals(0, newLog().replay(replayed::add));
+        assertEquals(0, replayed.size());
+    }
+
+    @Test
+    void tornTailRecordEndsReplay() throws IOException {
+        write(1, 5);
+        //A crash in the middle of the last append leaves its sequence number without the rest of the record
+        overwrite(segments().get(0), 4L * WriteAheadLog.RECORD_SIZE + Long.BYTES,
+                new byte[WriteAheadLog.RECORD_SIZE - Long.BYTES]);
+
+        List<LedgerEntry> replayed = new ArrayList<>();
+
+        assertEquals(4, newLog().replay(replayed::add));
+        assertEquals(4, replayed.size());
+    }
+
+    @Test
+    void recordNotMatchingItsChecksumEndsReplay() throws IOException {
+        write(1, 5);
+        //Amount of the last record
+        long offset = 4L * WriteAheadLog.RECORD_SIZE + 3 * Long.BYTES;
+        overwrite(segments().get(0), offset, new byte[]{(byte) 0xFF});
+
+        List<LedgerEntry> replayed = new ArrayList<>();
+
+        assertEquals(4, newLog().replay(replayed::add));
+        assertEquals(4, replayed.size());
+    }
+
+    @Test
+    void missingSegmentStopsReplayAtTheGap() throws IOException {
+        write(1, 3 * RECORDS_PER_SEGMENT);
+        List<Path> segments = segments();
+        assertEquals(3, segments.size());
+        Files.delete(segments.get(1));
+
+        List<LedgerEntry> replayed = new ArrayList<>();
+
+        assertEquals(RECORDS_PER_SEGMENT, newLog().replay(replayed::add));
+        assertEquals(RECORDS_PER_SEGMENT, replayed.size());
+    }
+
+    @Test
+    void appendsAfterReplayContinueTheSequence() throws IOException {
+        write(1, 12);
+        WriteAheadLog wal = newLog();
+        long lastSeq = wal.replay(entry -> {
+        });
+        wal.open(lastSeq + 1);
+        for (long seq = lastSeq + 1; seq <= 20; seq++) {
+            wal.append(entry(seq));
+        }
+        wal.close();
+
+        List<LedgerEntry> replayed = new ArrayList<>();
+
+        assertEquals(20, newLog().replay(replayed::add));
+        for (int i = 0; i < replayed.size(); i++) {
+            assertEntry(i + 1, replayed.get(i));
+        }
+    }
+
+    @Test
+    void segmentsUpToAnExportedRecordAreDeleted() throws IOException {
+        WriteAheadLog wal = newLog();
+        wal.open(1);
+        for (long seq = 1; seq <= 3 * RECORDS_PER_SEGMENT; seq++) {
+            wal.append(entry(seq));
+        }
+        wal.deleteSegmentsUpTo(RECORDS_PER_SEGMENT + 5);
+        wal.close();
+
+        List<LedgerEntry> replayed = new ArrayList<>();
+        newLog().replay(replayed::add);
+
+        assertEquals(2, segments().size());
+        assertEquals(RECORDS_PER_SEGMENT + 1, replayed.get(0).getSeq());
+        assertEquals(3 * RECORDS_PER_SEGMENT, replayed.get(replayed.size() - 1).getSeq());
+    }
+
+    private void write(long firstSeq, long lastSeq) throws IOException {
+        WriteAheadLog wal = newLog();
+        wal.open(firstSeq);
+        for (long seq = firstSeq; seq <= lastSeq; seq++) {
+            wal.append(entry(seq));
+        }
+        wal.close();
+    }
+
+    private WriteAheadLog newLog() throws IOException {
+        return new WriteAheadLog(directory, RECORDS_PER_SEGMENT * WriteAheadLog.RECORD_SIZE);
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static void overwrite(Path file, long offset, byte[] bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(bytes), offset);
+        }
+    }
+
+    static LedgerEntry entry(long seq) {
+        return new LedgerEntry(seq, seq, seq + 1, seq * 10, seq * 100, seq * 1000, seq, seq % 2 == 0 ? seq * 7 : 0);
+    }
+
+    private static void assertEntry(long seq, LedgerEntry entry) {
+        assertEquals(seq, entry.getSeq());
+        assertEquals(seq, entry.getSenderAccountId());
+        assertEquals(seq + 1, entry.getReceiverAccountId());
+        assertEquals(seq * 10, entry.getAmount());
+        assertEquals(seq * 100, entry.getSenderBalance());
+        assertEquals(seq * 1000, entry.getReceiverBalance());
+        assertEquals(seq, entry.getTimestamp());
+        assertEquals(seq % 2 == 0 ? seq * 7 : 0, entry.getClaimId());
+    }
+}
@@ -0,0 +1,77 @@
+package limit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RateLimiterTest {
+    private static final Map<String, String> PROPERTIES = Map.of(
+            "limit.rate.default", "1",
+            "limit.burst.default", "1",
+            "limit.idle-timeout", "PT1H",
+            "limit.max-buckets", "2"
+    );
+
+    @BeforeEach
+    void setUp() {
+        PROPERTIES.forEach(System::setProperty);
+    }
+
+    @AfterEach
+    void tearDown() {
+        PROPERTIES.keySet().forEach(System::clearProperty);
+    }
+
+    @Test
+    void clientOverTheLimitIsRefused() {
+        RateLimiter limiter = new RateLimiter(new LimitConfig());
+
+        assertTrue(limiter.tryAcquire("/money", "a"));
+        assertFalse(limiter.tryAcquire("/money", "a"));
+        assertTrue(limiter.tryAcquire("/money", "b"));
+    }
+
+    @Test
+    void bucketsInUseAreNotDroppedWhenTheLimiterIsFull() {
+        RateLimiter limiter = new RateLimiter(new LimitConfig());
+        //Counters are registered once per process
+        long evictions = limiter.getEvictions();
+        long fallbacks = limiter.getFallbacks();
+        assertTrue(limiter.tryAcquire("/money", "a"));
+        assertTrue(limiter.tryAcquire("/money", "b"));
+
+        //No bucket is full again, new clients share the fallback bucket instead of pushing out a and b
+        assertTrue(limiter.tryAcquire("/money", "c"));
+        assertFalse(limiter.tryAcquire("/money", "d"));
+
+        assertFalse(limiter.tryAcquire("/money", "a"));
+        assertFalse(limiter.tryAcquire("/money", "b"));
+        assertEquals(2, limiter.getSize());
+        assertEquals(evictions, limiter.getEvictions());
+        assertEquals(fallbacks + 2, limiter.getFallbacks());
+    }
+
+    @Test
+    void fullBucketsMakeRoomForNewClients() throws InterruptedException {
+        System.setProperty("limit.rate.default", "100");
+        RateLimiter limiter = new RateLimiter(new LimitConfig());
+        long evictions = limiter.getEvictions();
+        long fallbacks = limiter.getFallbacks();
+        assertTrue(limiter.tryAcquire("/money", "a"));
+        assertTrue(limiter.tryAcquire("/money", "b"));
+        //Buckets refill in 10 ms
+        Thread.sleep(50);
+
+        assertTrue(limiter.tryAcquire("/money", "c"));
+
+        assertEquals(1, limiter.getSize());
+        assertEquals(evictions + 2, limiter.getEvictions());
+        assertEquals(fallbacks, limiter.getFallbacks());
+    }
+}
@@ -0,0 +1,70 @@
+package limit;
+
+import org.junit.jupiter.api.Test;
+import rawhttp.core.RawHttp;
+import rawhttp.core.RawHttpHeaders;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TrustedProxiesTest {
+    private static final RawHttp HTTP = new RawHttp();
+
+    private final TrustedProxies proxies = new TrustedProxies(List.of("10.0.0.0/8", "192.168.1.7", "fd00::/8"));
+
+    @Test
+    void headersOfUntrustedConnectionsAreIgnored() throws UnknownHostException {
+        assertEquals("203.0.113.9", proxies.clientAddress(address("203.0.113.9"),
+                headers("X-Forwarded-For: 198.51.100.1")));
+        assertEquals("203.0.113.9", new TrustedProxies(List.of()).clientAddress(address("203.0.113.9"),
+                headers("Forwarded: for=198.51.100.1")));
+    }
+
+    @Test
+    void clientIsTheLastAddressThatIsNotATrustedProxy() throws UnknownHostException {
+        //The leftmost address is whatever the client sent, only the hops appended by trusted proxies count
+        assertEquals("198.51.100.1", proxies.clientAddress(address("10.1.2.3"),
+                headers("X-Forwarded-For: 1.1.1.1, 198.51.100.1, 192.168.1.7")));
+        assertEquals("198.51.100.1", proxies.clientAddress(address("192.168.1.7"),
+                headers("X-Forwarded-For: 198.51.100.1:4711")));
+    }
+
+    @Test
+    void forwardedTakesPrecedenceOverXForwardedFor() throws UnknownHostException {
+        assertEquals("2001:db8:0:0:0:0:0:1", proxies.clientAddress(address("fd12::1"),
+                headers("Forwarded: for=\"[2001:db8::1]:4711\";proto=https, for=10.0.0.5",
+                        "X-Forwarded-For: 198.51.100.1")));
+    }
+
+    @Test
+    void trustedConnectionWithoutHeadersIsTheClient() throws UnknownHostException {
+        assertEquals("10.0.0.5", proxies.clientAddress(address("10.0.0.5"), headers()));
+    }
+
+    @Test
+    void obfuscatedIdentifierIsKeptAsItIs() throws UnknownHostException {
+        assertEquals("_hidden", proxies.clientAddress(address("10.0.0.5"), headers("Forwarded: for=_hidden")));
+    }
+
+    @Test
+    void rangesOtherThanAddressesAreRefused() {
+        assertThrows(IllegalArgumentException.class, () -> new TrustedProxies(List.of("proxy.example.com")));
+        assertThrows(IllegalArgumentException.class, () -> new TrustedProxies(List.of("10.0.0.0/33")));
+    }
+
+    private static InetAddress address(String literal) throws UnknownHostException {
+        return InetAddress.getByName(literal);
+    }
+
+    private static RawHttpHeaders headers(String... lines) {
+        StringBuilder request = new StringBuilder("GET / HTTP/1.1\r\nHost: localhost\r\n");
+        for (String line : lines) {
+            request.append(line).append("\r\n");
+        }
+        return HTTP.parseRequest(request.append("\r\n").toString()).getHeaders();
+    }
+}
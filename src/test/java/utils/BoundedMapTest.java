@@ -0,0 +1,86 @@
+package utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BoundedMapTest {
+    @Test
+    void fullMapDropsTheLeastRecentlyUsedEntries() throws InterruptedException {
+        LongAdder evictions = new LongAdder();
+        BoundedMap<Integer, String> map = new BoundedMap<>(8, value -> false, evictions);
+        for (int key = 0; key < 8; key++) {
+            map.put(key, "value " + key);
+            TimeUnit.MILLISECONDS.sleep(2);
+        }
+        //Oldest entries are used again, so the ones put after them are the least recently used now
+        map.get(0);
+        map.get(1);
+        TimeUnit.MILLISECONDS.sleep(2);
+
+        map.put(8, "value 8");
+
+        assertEquals(7, map.size());
+        assertEquals(2, evictions.sum());
+        assertNotNull(map.get(0));
+        assertNotNull(map.get(1));
+        assertNull(map.get(2));
+        assertNull(map.get(3));
+        assertNotNull(map.get(8));
+    }
+
+    @Test
+    void staleEntriesAreDroppedBeforeUsedOnes() {
+        LongAdder evictions = new LongAdder();
+        BoundedMap<Integer, Integer> map = new BoundedMap<>(8, value -> value < 0, evictions);
+        for (int key = 0; key < 8; key++) {
+            map.put(key, key % 2 == 0 ? -1 : 1);
+        }
+
+        map.put(8, 1);
+
+        assertEquals(5, map.size());
+        assertEquals(4, evictions.sum());
+        for (int key = 1; key < 8; key += 2) {
+            assertNotNull(map.get(key));
+        }
+    }
+
+    @Test
+    void staleEntriesAreDroppedOnRequestWhileTheMapIsNotFull() {
+        BoundedMap<Integer, Integer> map = new BoundedMap<>(100, value -> value < 0, new LongAdder());
+        map.put(1, -1);
+        map.put(2, 2);
+
+        map.evictStale();
+
+        assertNull(map.get(1));
+        assertEquals(2, map.get(2));
+    }
+
+    @Test
+    void computeIfAbsentKeepsTheExistingValue() {
+        BoundedMap<String, StringBuilder> map = new BoundedMap<>(4, value -> false, new LongAdder());
+        StringBuilder first = map.computeIfAbsent("key", key -> new StringBuilder(key));
+
+        assertTrue(first == map.computeIfAbsent("key", key -> new StringBuilder()));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    void removeOnlyRemovesTheGivenValue() {
+        BoundedMap<String, String> map = new BoundedMap<>(4, value -> false, new LongAdder());
+        map.put("key", "new");
+
+        assertFalse(map.remove("key", "old"));
+        assertTrue(map.remove("key", "new"));
+        assertNull(map.get("key"));
+    }
+}